@@ -0,0 +1,311 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A request body read by a {@link BodyAggregator}, held either in
+ * memory, in segments of a {@link BufferPool}, or in a temporary file.
+ *
+ * <p>The body can be read any number of times, as a stream or by
+ * transferring it to a channel. {@link #transferTo} does not copy the
+ * body onto the heap: segments are written as they are, and a file is
+ * transferred with {@link FileChannel#transferTo}.
+ *
+ * <p>The body must be closed once it is no longer needed, which returns
+ * its segments to the pool or deletes its file. It must not be used
+ * afterwards.
+ *
+ * @see BodyAggregator
+ *
+ * @since Servlet 3.1
+ */
+public class AggregatedBody implements Closeable {
+
+    private final BufferPool pool;
+    private ByteBuffer[] segments;
+    private final long length;
+    private Path file;
+    private FileChannel channel;
+
+    // package private, bodies are created by BodyAggregator
+    AggregatedBody(BufferPool pool, ByteBuffer[] segments, long length,
+            Path file, FileChannel channel) {
+        this.pool = pool;
+        this.segments = segments;
+        this.length = length;
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * Gets the length of the body.
+     *
+     * @return the number of bytes of the body
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns whether the body is held in memory.
+     *
+     * @return <code>true</code> if the body is in memory,
+     * <code>false</code> if it was spilled to a temporary file
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Gets the temporary file the body was spilled to.
+     *
+     * @return the path of the file, or <code>null</code> if the body is
+     * in memory
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns read-only views of the segments that hold the body, in
+     * order, if it is in memory.
+     *
+     * @return the segments, or <code>null</code> if the body was spilled
+     * to a temporary file
+     */
+    public ByteBuffer[] getBuffers() {
+        if (file != null) {
+            return null;
+        }
+        ByteBuffer[] views = new ByteBuffer[segments.length];
+        for (int i = 0; i < views.length; i++) {
+            views[i] = segments[i].asReadOnlyBuffer();
+        }
+        return views;
+    }
+
+    /**
+     * Returns a new stream that reads the body from its start.
+     *
+     * @return a stream over the body
+     *
+     * @exception IOException if the file of the body cannot be opened
+     */
+    public InputStream getInputStream() throws IOException {
+        if (file != null) {
+            return Files.newInputStream(file);
+        }
+        return new SegmentInputStream(segments);
+    }
+
+    /**
+     * Writes the body to a channel, which must be in blocking mode.
+     *
+     * @param target the channel to write the body to
+     *
+     * @return the number of bytes written
+     *
+     * @exception IOException if an input or output exception occurred
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        if (channel != null) {
+            long position = 0;
+            while (position < length) {
+                position += channel.transferTo(position, length - position,
+                                               target);
+            }
+            return position;
+        }
+        for (ByteBuffer segment : segments) {
+            ByteBuffer view = segment.duplicate();
+            while (view.hasRemaining()) {
+                target.write(view);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Returns a copy of the body.
+     *
+     * @return the bytes of the body
+     *
+     * @exception IOException if the file of the body cannot be read
+     *
+     * @exception IllegalStateException if the body is too large for an
+     * array
+     */
+    public byte[] toByteArray() throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException();
+        }
+        byte[] b = new byte[(int) length];
+        int off = 0;
+        if (channel != null) {
+            ByteBuffer dst = ByteBuffer.wrap(b);
+            while (dst.hasRemaining()) {
+                if (channel.read(dst, dst.position()) < 0) {
+                    break;
+                }
+            }
+            return b;
+        }
+        for (ByteBuffer segment : segments) {
+            ByteBuffer view = segment.duplicate();
+            int n = view.remaining();
+            view.get(b, off, n);
+            off += n;
+        }
+        return b;
+    }
+
+    /**
+     * Returns the segments of the body to the pool, or deletes its
+     * temporary file.
+     */
+    @Override
+    public void close() {
+        if (segments != null) {
+            for (ByteBuffer segment : segments) {
+                pool.release(segment);
+            }
+            segments = null;
+        }
+        deleteFile(file, channel);
+        file = null;
+        channel = null;
+    }
+
+    static void deleteFile(Path file, FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
+
+
+/*
+ * Reads a sequence of segments without copying them.
+ */
+// file private
+class SegmentInputStream extends InputStream {
+
+    private final ByteBuffer[] segments;
+    private int index;
+
+    SegmentInputStream(ByteBuffer[] segments) {
+        this.segments = new ByteBuffer[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            this.segments[i] = segments[i].duplicate();
+        }
+    }
+
+    @Override
+    public int read() {
+        ByteBuffer segment = current();
+        return segment == null ? -1 : segment.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        ByteBuffer segment = current();
+        if (segment == null) {
+            return -1;
+        }
+        int n = Math.min(len, segment.remaining());
+        segment.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        ByteBuffer segment;
+        while (skipped < n && (segment = current()) != null) {
+            int k = (int) Math.min(n - skipped, segment.remaining());
+            segment.position(segment.position() + k);
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        ByteBuffer segment = current();
+        return segment == null ? 0 : segment.remaining();
+    }
+
+    private ByteBuffer current() {
+        while (index < segments.length) {
+            if (segments[index].hasRemaining()) {
+                return segments[index];
+            }
+            index++;
+        }
+        return null;
+    }
+}
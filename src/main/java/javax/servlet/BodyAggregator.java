@@ -0,0 +1,322 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a whole request body in non-blocking mode, without tying up a
+ * thread while the client is sending it.
+ *
+ * <p>The aggregator registers itself as the {@link ReadListener} of the
+ * request input stream, and reads whatever data is available each time
+ * the container invokes {@link #onDataAvailable}. Data is collected in
+ * segments taken from a {@link BufferPool} until it exceeds a memory
+ * limit; beyond it, the body is spilled to a temporary file. Once all
+ * data has been read, the future returned by {@link #getBody} completes
+ * with an {@link AggregatedBody}.
+ *
+ * <p>A typical use from an asynchronous servlet is:
+ * <pre>
+ *    final AsyncContext ac = req.startAsync();
+ *    new BodyAggregator(req.getInputStream()) {
+ *        protected void onComplete(AggregatedBody body, Throwable failure) {
+ *            // process the body, then
+ *            body.close();
+ *            ac.complete();
+ *        }
+ *    }.start();
+ * </pre>
+ *
+ * @see AggregatedBody
+ *
+ * @since Servlet 3.1
+ */
+public class BodyAggregator implements ReadListener {
+
+    private static final String LSTRING_FILE = "javax.servlet.LocalStrings";
+    private static ResourceBundle lStrings =
+        ResourceBundle.getBundle(LSTRING_FILE);
+
+    /**
+     * The default amount of body data kept in memory, in bytes.
+     */
+    public static final long DEFAULT_MEMORY_LIMIT = 1024 * 1024;
+
+    private final ServletInputStream in;
+    private final BufferPool pool;
+    private final long memoryLimit;
+    private final long maxSize;
+    private final File tempDirectory;
+
+    private final CompletionFuture<AggregatedBody> body =
+        new CompletionFuture<AggregatedBody>();
+
+    // the state below is only used from the container callbacks, which
+    // do not run concurrently
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    private long size;
+    private Path file;
+    private FileChannel channel;
+    private ByteBuffer spillSegment;
+    private boolean done;
+
+    /**
+     * Constructs an aggregator that uses the default pool, keeps up to
+     * {@link #DEFAULT_MEMORY_LIMIT} bytes in memory and spills larger
+     * bodies to the default temporary-file directory.
+     *
+     * @param in the input stream of the request
+     */
+    public BodyAggregator(ServletInputStream in) {
+        this(in, BufferPool.getDefault(), DEFAULT_MEMORY_LIMIT, -1L, null);
+    }
+
+    /**
+     * Constructs an aggregator.
+     *
+     * @param in the input stream of the request
+     * @param pool the pool of the segments the body is collected in
+     * @param memoryLimit the number of bytes above which the body is
+     * spilled to a temporary file
+     * @param maxSize the maximum size of the body, or -1 for no maximum
+     * @param tempDirectory the directory of the temporary file, or
+     * <code>null</code> for the default temporary-file directory, for
+     * instance the one given by the {@link ServletContext#TEMPDIR}
+     * context attribute
+     *
+     * @throws IllegalArgumentException if <code>in</code> or
+     * <code>pool</code> is <code>null</code>, or if
+     * <code>memoryLimit</code> is negative
+     */
+    public BodyAggregator(ServletInputStream in, BufferPool pool,
+            long memoryLimit, long maxSize, File tempDirectory) {
+        if (in == null || pool == null || memoryLimit < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.in = in;
+        this.pool = pool;
+        this.memoryLimit = memoryLimit;
+        this.maxSize = maxSize;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Registers this aggregator as the {@link ReadListener} of the
+     * stream.
+     *
+     * @exception IllegalStateException if the stream is not in an
+     * upgraded or asynchronous request, or already has a
+     * <code>ReadListener</code>
+     */
+    public void start() {
+        in.setReadListener(this);
+    }
+
+    /**
+     * Returns a future that completes with the body once it has been
+     * read, or completes exceptionally when reading fails, the body
+     * exceeds its maximum size or the container reports an error.
+     *
+     * @return the body
+     */
+    public Future<AggregatedBody> getBody() {
+        return body;
+    }
+
+    /**
+     * Invoked by the container when data can be read. Reads data until
+     * the stream is no longer ready.
+     *
+     * @exception IOException if reading or spilling the data failed
+     */
+    @Override
+    public void onDataAvailable() throws IOException {
+        if (done) {
+            return;
+        }
+        try {
+            while (in.isReady()) {
+                ByteBuffer segment = segment();
+                int n = in.read(segment);
+                if (n < 0) {
+                    break;
+                }
+                size += n;
+                if (maxSize >= 0 && size > maxSize) {
+                    throw new IOException(MessageFormat.format(
+                        lStrings.getString("err.body_too_large"),
+                        String.valueOf(maxSize)));
+                }
+                if (channel != null) {
+                    segment.flip();
+                    while (segment.hasRemaining()) {
+                        channel.write(segment);
+                    }
+                    segment.clear();
+                } else if (size > memoryLimit) {
+                    spill();
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Invoked by the container when all data has been read. Completes
+     * the future returned by {@link #getBody}.
+     */
+    @Override
+    public void onAllDataRead() {
+        if (done) {
+            return;
+        }
+        done = true;
+        ByteBuffer[] buffers = new ByteBuffer[segments.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = segments.get(i);
+            buffers[i].flip();
+        }
+        segments.clear();
+        if (spillSegment != null) {
+            pool.release(spillSegment);
+            spillSegment = null;
+        }
+        AggregatedBody result =
+            new AggregatedBody(pool, buffers, size, file, channel);
+        body.complete(result);
+        onComplete(result, null);
+    }
+
+    /**
+     * Invoked by the container when an error occurs reading the request.
+     * Discards the data read so far and completes the aggregator with
+     * the error.
+     *
+     * @param t the error
+     */
+    @Override
+    public void onError(Throwable t) {
+        fail(t);
+    }
+
+    /**
+     * Invoked once, when the body has been read or reading failed, just
+     * after the future returned by {@link #getBody} is done. Subclasses
+     * can override this method to process the body and complete the
+     * <code>AsyncContext</code>.
+     *
+     * <p>The default implementation does nothing.
+     *
+     * @param body the body, or <code>null</code> if reading failed
+     * @param failure the error reading failed with, or <code>null</code>
+     * if the body was read
+     */
+    protected void onComplete(AggregatedBody body, Throwable failure) {
+    }
+
+    /*
+     * Returns the segment to read into: the last one while the body is in
+     * memory, or the single reused one once it is spilled.
+     */
+    private ByteBuffer segment() {
+        if (channel != null) {
+            return spillSegment;
+        }
+        int n = segments.size();
+        if (n > 0 && segments.get(n - 1).hasRemaining()) {
+            return segments.get(n - 1);
+        }
+        ByteBuffer segment = pool.acquire();
+        segments.add(segment);
+        return segment;
+    }
+
+    private void spill() throws IOException {
+        file = (tempDirectory == null
+                ? Files.createTempFile("body", ".tmp")
+                : Files.createTempFile(tempDirectory.toPath(), "body", ".tmp"));
+        channel = FileChannel.open(file, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        for (ByteBuffer segment : segments) {
+            segment.flip();
+            while (segment.hasRemaining()) {
+                channel.write(segment);
+            }
+            pool.release(segment);
+        }
+        segments.clear();
+        spillSegment = pool.acquire();
+    }
+
+    private void fail(Throwable t) {
+        if (done) {
+            return;
+        }
+        done = true;
+        for (ByteBuffer segment : segments) {
+            pool.release(segment);
+        }
+        segments.clear();
+        if (spillSegment != null) {
+            pool.release(spillSegment);
+            spillSegment = null;
+        }
+        AggregatedBody.deleteFile(file, channel);
+        file = null;
+        channel = null;
+        body.fail(t);
+        onComplete(null, t);
+    }
+}
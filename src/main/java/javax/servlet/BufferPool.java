@@ -0,0 +1,222 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pool of fixed-size byte buffers, called segments, shared by the
+ * response and request streams that buffer data.
+ *
+ * <p>Idle segments are kept in slabs, one per available processor, and
+ * a thread acquires and releases segments through the slab its thread
+ * identifier maps to. A slab holds a bounded number of idle segments:
+ * when it is empty a new segment is allocated, and when it is full a
+ * released segment is left to the garbage collector.
+ *
+ * <p>Segments are either heap buffers or direct buffers. Direct
+ * segments live outside the Java heap, which suits data that is
+ * eventually written to a channel.
+ *
+ * <p>A segment must not be used after it has been released, nor
+ * released twice. A segment released again while it is still idle in
+ * the slab it is returned to is rejected.
+ *
+ * @see PooledServletOutputStream
+ *
+ * @since Servlet 3.1
+ */
+public class BufferPool {
+
+    /**
+     * The size of the segments of the default pool, in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 8192;
+
+    /**
+     * The number of idle segments each slab of the default pool keeps.
+     */
+    public static final int DEFAULT_SLAB_CAPACITY = 64;
+
+    private static final BufferPool DEFAULT = new BufferPool(
+        DEFAULT_SEGMENT_SIZE, DEFAULT_SLAB_CAPACITY, false);
+
+    private final int segmentSize;
+    private final boolean direct;
+    private final Slab[] slabs;
+    private final int mask;
+
+    /**
+     * Returns the pool of heap segments of
+     * {@link #DEFAULT_SEGMENT_SIZE} bytes shared by default.
+     *
+     * @return the default pool
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Constructs a pool.
+     *
+     * @param segmentSize the size of each segment, in bytes
+     * @param slabCapacity the maximum number of idle segments kept by
+     * each slab
+     * @param direct <code>true</code> to allocate direct segments,
+     * <code>false</code> to allocate heap segments
+     *
+     * @throws IllegalArgumentException if <code>segmentSize</code> is not
+     * positive or <code>slabCapacity</code> is negative
+     */
+    public BufferPool(int segmentSize, int slabCapacity, boolean direct) {
+        if (segmentSize <= 0 || slabCapacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.segmentSize = segmentSize;
+        this.direct = direct;
+        int n = Integer.highestOneBit(
+            Runtime.getRuntime().availableProcessors() * 2 - 1);
+        slabs = new Slab[n];
+        for (int i = 0; i < n; i++) {
+            slabs[i] = new Slab(slabCapacity);
+        }
+        mask = n - 1;
+    }
+
+    /**
+     * Gets the size of the segments of this pool.
+     *
+     * @return the segment size, in bytes
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Returns whether this pool allocates direct segments.
+     *
+     * @return <code>true</code> if the segments are direct buffers
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Acquires a segment. Its position is zero and its limit is its
+     * capacity.
+     *
+     * @return an idle segment, or a newly allocated one
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer segment = slab().poll();
+        if (segment == null) {
+            segment = direct ? ByteBuffer.allocateDirect(segmentSize)
+                             : ByteBuffer.allocate(segmentSize);
+        }
+        return segment;
+    }
+
+    /**
+     * Returns a segment to this pool. Buffers that were not allocated
+     * by a pool with the same segment size and kind are ignored.
+     *
+     * <p>Releasing a segment is only checked against the idle segments
+     * of the slab of the calling thread, so a segment released twice from
+     * different threads may not be detected.
+     *
+     * @param segment the segment to release
+     *
+     * @throws IllegalStateException if the segment is already idle in
+     * this pool
+     */
+    public void release(ByteBuffer segment) {
+        if (segment.capacity() != segmentSize || segment.isDirect() != direct
+                || segment.isReadOnly()) {
+            return;
+        }
+        if (!slab().offer(segment)) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private Slab slab() {
+        return slabs[(int) Thread.currentThread().getId() & mask];
+    }
+
+    /*
+     * A bounded stack of idle segments.
+     */
+    private static final class Slab {
+
+        private final ByteBuffer[] segments;
+        private int count;
+
+        Slab(int capacity) {
+            segments = new ByteBuffer[capacity];
+        }
+
+        synchronized ByteBuffer poll() {
+            if (count == 0) {
+                return null;
+            }
+            ByteBuffer segment = segments[--count];
+            segments[count] = null;
+            return segment;
+        }
+
+        /*
+         * Returns false if the segment is already idle in this slab,
+         * without clearing it.
+         */
+        synchronized boolean offer(ByteBuffer segment) {
+            for (int i = 0; i < count; i++) {
+                if (segments[i] == segment) {
+                    return false;
+                }
+            }
+            segment.clear();
+            if (count < segments.length) {
+                segments[count++] = segment;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Future;
+
+/**
+ * Writes data to a {@link ServletOutputStream} in non-blocking mode,
+ * queueing it in memory until the stream is ready to accept it.
+ *
+ * <p>Data can be offered from any thread. It is written to the stream
+ * by the thread that offers it when the stream is ready, and otherwise
+ * from {@link #onWritePossible}, which the container invokes once the
+ * stream can accept more data. This lets a handful of threads serve
+ * many slow clients, without the application having to track
+ * {@link ServletOutputStream#isReady} itself.
+ *
+ * <p>The amount of queued data is bounded by a high watermark: once
+ * the queue holds data, an offer that would take it above the high
+ * watermark is rejected. After a rejection, {@link #onWritable} is
+ * invoked when the queue has drained down to the low watermark, and
+ * the producer can offer data again.
+ *
+ * <p>A typical use from an asynchronous servlet is:
+ * <pre>
+ *    AsyncContext ac = req.startAsync();
+ *    NonBlockingResponseWriter writer =
+ *        new NonBlockingResponseWriter(resp.getOutputStream());
+ *    writer.start();
+ *    // from any thread
+ *    writer.offer(chunk);
+ *    ...
+ *    writer.complete();
+ * </pre>
+ * and to complete the <code>AsyncContext</code> from
+ * {@link #onComplete}, or once the future returned by
+ * {@link #getCompletion} is done.
+ *
+ * @see WriteListener
+ *
+ * @since Servlet 3.1
+ */
+public class NonBlockingResponseWriter implements WriteListener {
+
+    /**
+     * The default low watermark, in bytes.
+     */
+    public static final int DEFAULT_LOW_WATERMARK = 32 * 1024;
+
+    /**
+     * The default high watermark, in bytes.
+     */
+    public static final int DEFAULT_HIGH_WATERMARK = 64 * 1024;
+
+    private final ServletOutputStream out;
+    private final int lowWatermark;
+    private final int highWatermark;
+
+    private final CompletionFuture<Void> completion =
+        new CompletionFuture<Void>();
+
+    // the state below is guarded by lock
+    private final Object lock = new Object();
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+    private long queuedBytes;
+    // a thread is writing the head of the queue to the stream
+    private boolean writing;
+    // isReady() returned false, so the container will call
+    // onWritePossible; nothing may be written until it does
+    private boolean awaitingCallback = true;
+    // an offer was rejected, onWritable is due at the low watermark
+    private boolean rejected;
+    private boolean completing;
+    private boolean done;
+
+    /**
+     * Constructs a writer for the given stream with the default
+     * watermarks.
+     *
+     * @param out the output stream of the response
+     */
+    public NonBlockingResponseWriter(ServletOutputStream out) {
+        this(out, DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK);
+    }
+
+    /**
+     * Constructs a writer for the given stream.
+     *
+     * @param out the output stream of the response
+     * @param lowWatermark the number of queued bytes at or below which
+     * a producer whose offer was rejected is notified through
+     * {@link #onWritable}
+     * @param highWatermark the number of queued bytes that an offer may
+     * not exceed, unless the queue is empty
+     *
+     * @throws IllegalArgumentException if <code>out</code> is
+     * <code>null</code>, if <code>lowWatermark</code> is negative or if
+     * it is greater than <code>highWatermark</code>
+     */
+    public NonBlockingResponseWriter(ServletOutputStream out,
+            int lowWatermark, int highWatermark) {
+        if (out == null || lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException();
+        }
+        this.out = out;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * Registers this writer as the {@link WriteListener} of the stream.
+     * Offered data is queued until the container first invokes
+     * {@link #onWritePossible}.
+     *
+     * @exception IllegalStateException if the stream is not in an
+     * upgraded or asynchronous request, or already has a
+     * <code>WriteListener</code>
+     */
+    public void start() {
+        out.setWriteListener(this);
+    }
+
+    /**
+     * Offers a copy of a region of a byte array for writing.
+     *
+     * @param b the data
+     * @param off the offset of the first byte to write
+     * @param len the number of bytes to write
+     *
+     * @return <code>true</code> if the data was queued, or
+     * <code>false</code> if it was rejected because the queue is full or
+     * the writer has failed
+     *
+     * @exception IllegalStateException if {@link #complete} has been
+     * called
+     */
+    public boolean offer(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (!canAccept(len)) {
+            return false;
+        }
+        byte[] copy = new byte[len];
+        System.arraycopy(b, off, copy, 0, len);
+        return offer(ByteBuffer.wrap(copy));
+    }
+
+    /**
+     * Offers the remaining bytes of a buffer for writing. If the buffer
+     * is accepted, the writer takes ownership of it: it must not be
+     * modified until the returned future completes.
+     *
+     * @param buf the data
+     *
+     * @return <code>true</code> if the buffer was queued, or
+     * <code>false</code> if it was rejected because the queue is full or
+     * the writer has failed
+     *
+     * @exception IllegalStateException if {@link #complete} has been
+     * called
+     */
+    public boolean offer(ByteBuffer buf) {
+        int len = buf.remaining();
+        synchronized (lock) {
+            if (!canAccept(len)) {
+                return false;
+            }
+            if (len > 0) {
+                queue.add(buf);
+                queuedBytes += len;
+            }
+        }
+        drain();
+        return true;
+    }
+
+    /*
+     * Checks whether len more bytes can be queued, noting a rejection
+     * so that onWritable will be invoked.
+     */
+    private boolean canAccept(int len) {
+        synchronized (lock) {
+            if (completing) {
+                throw new IllegalStateException();
+            }
+            if (done) {
+                return false;
+            }
+            if (queuedBytes > 0 && queuedBytes + len > highWatermark) {
+                rejected = true;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Signals that no more data will be offered. The future returned by
+     * {@link #getCompletion} completes once all queued data has been
+     * written to the stream.
+     */
+    public void complete() {
+        synchronized (lock) {
+            completing = true;
+        }
+        drain();
+    }
+
+    /**
+     * Returns whether an offer of a small amount of data would currently
+     * be accepted.
+     *
+     * @return <code>true</code> if the queue is below the high watermark
+     * and the writer is still open
+     */
+    public boolean isWritable() {
+        synchronized (lock) {
+            return !done && !completing && queuedBytes < highWatermark;
+        }
+    }
+
+    /**
+     * Gets the number of bytes that have been offered but not yet
+     * written to the stream.
+     *
+     * @return the number of queued bytes
+     */
+    public long getQueuedBytes() {
+        synchronized (lock) {
+            return queuedBytes;
+        }
+    }
+
+    /**
+     * Returns a future that completes when all data has been written
+     * after {@link #complete} was called, or completes exceptionally
+     * when writing fails or the container reports an error.
+     *
+     * @return the completion of this writer
+     */
+    public Future<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Invoked by the container when data can be written to the stream.
+     * Writes queued data until the queue is empty or the stream is no
+     * longer ready.
+     */
+    @Override
+    public void onWritePossible() throws IOException {
+        synchronized (lock) {
+            awaitingCallback = false;
+        }
+        drain();
+    }
+
+    /**
+     * Invoked by the container when an error occurs writing to the
+     * stream. Discards the queued data and completes the writer with the
+     * error.
+     *
+     * @param t the error
+     */
+    @Override
+    public void onError(Throwable t) {
+        fail(t);
+    }
+
+    /**
+     * Invoked when the queue has drained down to the low watermark
+     * after an offer was rejected. It may be invoked from the thread of
+     * any producer or from a container thread.
+     *
+     * <p>The default implementation does nothing.
+     */
+    protected void onWritable() {
+    }
+
+    /**
+     * Invoked once, when the writer completes or fails, just after the
+     * future returned by {@link #getCompletion} is done. Subclasses can
+     * override this method to complete the <code>AsyncContext</code>.
+     *
+     * <p>The default implementation does nothing.
+     *
+     * @param failure the error the writer failed with, or
+     * <code>null</code> if all data was written
+     */
+    protected void onComplete(Throwable failure) {
+    }
+
+    /*
+     * Writes the queued buffers for as long as the stream is ready.
+     * Only one thread writes at a time; a thread that finds another one
+     * writing leaves its data for it.
+     */
+    private void drain() {
+        for (;;) {
+            ByteBuffer buf;
+            synchronized (lock) {
+                if (writing || awaitingCallback || done) {
+                    return;
+                }
+                buf = queue.peek();
+                if (buf == null) {
+                    if (!completing) {
+                        return;
+                    }
+                    done = true;
+                } else if (!out.isReady()) {
+                    awaitingCallback = true;
+                    return;
+                } else {
+                    writing = true;
+                }
+            }
+
+            if (buf == null) {
+                completion.complete(null);
+                onComplete(null);
+                return;
+            }
+
+            int len = buf.remaining();
+            try {
+                out.write(buf);
+            } catch (IOException e) {
+                synchronized (lock) {
+                    writing = false;
+                }
+                fail(e);
+                return;
+            }
+
+            boolean notify = false;
+            synchronized (lock) {
+                writing = false;
+                if (done) {
+                    // failed while writing, the queue was cleared
+                    return;
+                }
+                queue.poll();
+                queuedBytes -= len;
+                if (rejected && queuedBytes <= lowWatermark) {
+                    rejected = false;
+                    notify = true;
+                }
+            }
+            if (notify) {
+                onWritable();
+            }
+        }
+    }
+
+    private void fail(Throwable t) {
+        synchronized (lock) {
+            if (done) {
+                return;
+            }
+            done = true;
+            queue.clear();
+            queuedBytes = 0;
+        }
+        completion.fail(t);
+        onComplete(t);
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.ResourceBundle;
+
+/**
+ * A {@link ServletOutputStream} that buffers what is written to it in a
+ * chain of segments taken from a {@link BufferPool}, rather than in a
+ * single growing array.
+ *
+ * <p>It is meant for response wrappers that hold back the body of a
+ * response in order to inspect or transform it. Buffered data is written
+ * to the sink, {@link #writeSegment}, by {@link #flushBuffer} and
+ * {@link #close}; {@link #resetBuffer} discards it. In both cases the
+ * segments go back to the pool, so a buffered response does not leave
+ * garbage behind. {@link #flush} does not write the buffer.
+ *
+ * @see BufferPool
+ *
+ * @since Servlet 3.1
+ */
+public abstract class PooledServletOutputStream extends ServletOutputStream {
+
+    private static final String LSTRING_FILE = "javax.servlet.LocalStrings";
+    private static ResourceBundle lStrings =
+        ResourceBundle.getBundle(LSTRING_FILE);
+
+    private final BufferPool pool;
+
+    private ByteBuffer[] segments = new ByteBuffer[4];
+    private int count;
+    private long size;
+    private boolean closed;
+
+    /**
+     * Constructs a stream that takes its segments from the default pool.
+     */
+    protected PooledServletOutputStream() {
+        this(BufferPool.getDefault());
+    }
+
+    /**
+     * Constructs a stream that takes its segments from the given pool.
+     *
+     * @param pool the pool of segments
+     *
+     * @throws IllegalArgumentException if the pool is null
+     */
+    protected PooledServletOutputStream(BufferPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException();
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Writes a buffered segment to the destination of this stream. The
+     * data to write lies between the position and the limit of the
+     * segment. The segment is released to the pool when this method
+     * returns, so implementations must not keep a reference to it.
+     *
+     * @param segment the segment to write
+     *
+     * @exception IOException if an input or output exception occurred
+     */
+    protected abstract void writeSegment(ByteBuffer segment)
+        throws IOException;
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        tail().put((byte) b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureOpen();
+        while (len > 0) {
+            ByteBuffer segment = tail();
+            int n = Math.min(len, segment.remaining());
+            segment.put(b, off, n);
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        while (src.hasRemaining()) {
+            ByteBuffer segment = tail();
+            int n = Math.min(src.remaining(), segment.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + n);
+            segment.put(src);
+            src.limit(limit);
+            size += n;
+        }
+    }
+
+    /**
+     * Gets the number of bytes currently buffered.
+     *
+     * @return the number of buffered bytes
+     */
+    public long getBufferedSize() {
+        return size;
+    }
+
+    /**
+     * Writes the buffered data to <code>out</code>, keeping it buffered.
+     *
+     * @param out the stream to copy the buffered data to
+     *
+     * @exception IOException if an input or output exception occurred
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] copy = null;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer segment = segments[i];
+            if (segment.hasArray()) {
+                out.write(segment.array(), segment.arrayOffset(),
+                          segment.position());
+            } else {
+                if (copy == null) {
+                    copy = new byte[pool.getSegmentSize()];
+                }
+                ByteBuffer view = segment.duplicate();
+                view.flip();
+                int n = view.remaining();
+                view.get(copy, 0, n);
+                out.write(copy, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the buffered data, keeping it buffered.
+     *
+     * @return the buffered bytes
+     */
+    public byte[] toByteArray() {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException();
+        }
+        byte[] b = new byte[(int) size];
+        int off = 0;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer view = segments[i].duplicate();
+            view.flip();
+            int n = view.remaining();
+            view.get(b, off, n);
+            off += n;
+        }
+        return b;
+    }
+
+    /**
+     * Writes the buffered data with {@link #writeSegment} and releases
+     * the segments to the pool.
+     *
+     * @exception IOException if an input or output exception occurred
+     */
+    public void flushBuffer() throws IOException {
+        try {
+            for (int i = 0; i < count; i++) {
+                ByteBuffer segment = segments[i];
+                segment.flip();
+                writeSegment(segment);
+            }
+        } finally {
+            releaseSegments();
+        }
+    }
+
+    /**
+     * Discards the buffered data and releases the segments to the pool.
+     */
+    public void resetBuffer() {
+        releaseSegments();
+    }
+
+    /**
+     * Writes the buffered data and closes this stream. Subsequent writes
+     * fail with an <code>IOException</code>.
+     *
+     * @exception IOException if an input or output exception occurred
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flushBuffer();
+    }
+
+    private ByteBuffer tail() {
+        if (count > 0 && segments[count - 1].hasRemaining()) {
+            return segments[count - 1];
+        }
+        if (count == segments.length) {
+            segments = Arrays.copyOf(segments, count * 2);
+        }
+        ByteBuffer segment = pool.acquire();
+        segments[count++] = segment;
+        return segment;
+    }
+
+    private void releaseSegments() {
+        for (int i = 0; i < count; i++) {
+            pool.release(segments[i]);
+            segments[i] = null;
+        }
+        count = 0;
+        size = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException(lStrings.getString("err.io.closed"));
+        }
+    }
+}
@@ -60,6 +60,8 @@ package javax.servlet;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * 
@@ -86,6 +88,11 @@ import java.io.IOException;
 
 public abstract class ServletInputStream extends InputStream {
 
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    // Array used to copy data to direct buffers and channels, allocated on
+    // first use
+    private ByteBuffer copyBuffer;
 
 
     /**
@@ -142,6 +149,162 @@ public abstract class ServletInputStream extends InputStream {
     }
 
 
+    /**
+     * Reads the input stream, one line at a time, into a buffer. Starting
+     * at the position of the buffer, reads bytes until the buffer has no
+     * space remaining or a newline character has been read, which is
+     * stored in the buffer as well. The position of the buffer is
+     * advanced by the number of bytes read.
+     *
+     * <p>This method returns -1 if it reaches the end of the input
+     * stream before reading any byte.
+     *
+     * <p>Like {@link #readLine(byte[], int, int)}, this method cannot read
+     * ahead of the newline character and so reads one byte at a time
+     * unless a container overrides it. To read many lines, use a
+     * {@link ServletLineReader}, which buffers the input and scans it for
+     * newlines in bulk.
+     *
+     * @param dst the buffer into which data is read
+     *
+     * @return the number of bytes read, or -1 if the end of the stream
+     * is reached
+     *
+     * @exception IOException if an input or output exception has occurred
+     *
+     * @since Servlet 3.1
+     */
+    public int readLine(ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+            int n = readLine(dst.array(), dst.arrayOffset() + dst.position(),
+                             dst.remaining());
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+            return n;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        int count = 0, c;
+        while ((c = read()) != -1) {
+            dst.put((byte) c);
+            count++;
+            if (c == '\n' || !dst.hasRemaining()) {
+                break;
+            }
+        }
+        return count > 0 ? count : -1;
+    }
+
+
+    /**
+     * Reads bytes from the input stream into a buffer. Starting at the
+     * position of the buffer, reads at most as many bytes as the buffer
+     * has remaining, and advances its position by the number of bytes
+     * read. This method blocks until some input is available, unless the
+     * buffer has no space remaining.
+     *
+     * <p>The default implementation reads into the backing array of a
+     * heap buffer with {@link java.io.InputStream#read(byte[], int, int)},
+     * and copies into a direct buffer through a reused array. A servlet
+     * container can override this method to read from its network
+     * channel into the buffer without copying.
+     *
+     * <p>As with the other read methods, when a {@link ReadListener} is
+     * set this method must only be called when {@link #isReady} returns
+     * <code>true</code>.
+     *
+     * @param dst the buffer into which data is read
+     *
+     * @return the number of bytes read, or -1 if the end of the stream
+     * is reached
+     *
+     * @exception IOException if an input or output exception has occurred
+     *
+     * @since Servlet 3.1
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        int n;
+        if (dst.hasArray()) {
+            n = read(dst.array(), dst.arrayOffset() + dst.position(),
+                     dst.remaining());
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+        } else {
+            byte[] buf = getCopyBuffer().array();
+            n = read(buf, 0, Math.min(dst.remaining(), buf.length));
+            if (n > 0) {
+                dst.put(buf, 0, n);
+            }
+        }
+        return n;
+    }
+
+
+    /**
+     * Reads the input stream until its end, or until <code>max</code>
+     * bytes have been read, and writes the bytes read to a channel, such
+     * as the {@link java.nio.channels.FileChannel} of a file in which an
+     * upload is stored. The channel must be in blocking mode.
+     *
+     * <p>The default implementation copies the data through a reused
+     * array. A servlet container can override this method to transfer
+     * the data from its network channel, for example with
+     * {@link java.nio.channels.FileChannel#transferFrom}, so that the
+     * data is not copied onto the heap.
+     *
+     * <p>This method blocks until the data has been transferred and so
+     * is not meant to be used once a {@link ReadListener} is set.
+     *
+     * @param target the channel to write the data to
+     *
+     * @param max the maximum number of bytes to transfer
+     *
+     * @return the number of bytes transferred
+     *
+     * @exception IOException if an input or output exception has occurred
+     *
+     * @exception IllegalArgumentException if <code>max</code> is negative
+     *
+     * @since Servlet 3.1
+     */
+    public long transferTo(WritableByteChannel target, long max)
+            throws IOException {
+        if (max < 0) {
+            throw new IllegalArgumentException();
+        }
+        ByteBuffer copy = getCopyBuffer();
+        byte[] buf = copy.array();
+        long transferred = 0;
+        while (transferred < max) {
+            int n = read(buf, 0, (int) Math.min(buf.length, max - transferred));
+            if (n < 0) {
+                break;
+            }
+            copy.clear();
+            copy.limit(n);
+            while (copy.hasRemaining()) {
+                target.write(copy);
+            }
+            transferred += n;
+        }
+        return transferred;
+    }
+
+
+    private ByteBuffer getCopyBuffer() {
+        if (copyBuffer == null) {
+            copyBuffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        }
+        return copyBuffer;
+    }
+
+
     /**
      * Returns true when all the data from the stream has been read else
      * it returns false.
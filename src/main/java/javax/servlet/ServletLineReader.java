@@ -0,0 +1,317 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads lines from an input stream, such as a {@link ServletInputStream},
+ * through a buffer that is refilled with bulk reads and scanned for
+ * newline characters, instead of reading one byte at a time as
+ * {@link ServletInputStream#readLine(byte[], int, int)} does.
+ *
+ * <p>Because the reader reads ahead, once it is in use the remaining
+ * data of the stream must be read through it; {@link #read} gives access
+ * to the bytes that follow the lines read so far.
+ *
+ * <p>Lines can be copied out with the <code>readLine</code> methods, or
+ * visited without copying with {@link #nextLine} and {@link #getLine},
+ * which reuse the buffer of the reader:
+ *
+ * <pre>
+ * ServletLineReader reader = new ServletLineReader(request.getInputStream());
+ * while (reader.nextLine()) {
+ *     ByteBuffer line = reader.getLine();
+ *     ...
+ * }
+ * </pre>
+ *
+ * <p>A line includes its terminating newline character. A line longer
+ * than the space given to it, or than the buffer of the reader for
+ * <code>nextLine</code>, is returned in several parts, of which only the
+ * last ends with a newline character.
+ *
+ * <p>This class is not thread safe.
+ *
+ * @since Servlet 3.1
+ */
+public class ServletLineReader {
+
+    /**
+     * The default size of the buffer, in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final byte[] buf;
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    private final ByteBuffer line;
+
+    /**
+     * Constructs a reader with a buffer of
+     * {@link #DEFAULT_BUFFER_SIZE} bytes.
+     *
+     * @param in the stream to read from
+     */
+    public ServletLineReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a reader.
+     *
+     * @param in the stream to read from
+     * @param bufferSize the size of the buffer, in bytes, which is also
+     * the maximum length of a line returned by {@link #nextLine}
+     *
+     * @throws IllegalArgumentException if <code>bufferSize</code> is not
+     * positive
+     */
+    public ServletLineReader(InputStream in, int bufferSize) {
+        if (in == null) {
+            throw new NullPointerException();
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.in = in;
+        buf = new byte[bufferSize];
+        line = ByteBuffer.wrap(buf).asReadOnlyBuffer();
+        line.limit(0);
+    }
+
+    /**
+     * Reads a line into an array, with the same contract as
+     * {@link ServletInputStream#readLine(byte[], int, int)}.
+     *
+     * @param b an array of bytes into which data is read
+     * @param off the offset at which data is stored
+     * @param len the maximum number of bytes to read
+     *
+     * @return the number of bytes read, or -1 if the end of the stream
+     * is reached
+     *
+     * @exception IOException if an input or output exception has occurred
+     */
+    public int readLine(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int count = 0;
+        while (count < len) {
+            if (pos == limit && !fill()) {
+                break;
+            }
+            int end = Math.min(limit, pos + len - count);
+            int nl = indexOfNewline(pos, end);
+            int stop = (nl < 0 ? end : nl + 1);
+            int n = stop - pos;
+            System.arraycopy(buf, pos, b, off + count, n);
+            pos = stop;
+            count += n;
+            if (nl >= 0) {
+                break;
+            }
+        }
+        return count > 0 ? count : -1;
+    }
+
+    /**
+     * Reads a line into a buffer, with the same contract as
+     * {@link ServletInputStream#readLine(ByteBuffer)}.
+     *
+     * @param dst the buffer into which data is read
+     *
+     * @return the number of bytes read, or -1 if the end of the stream
+     * is reached
+     *
+     * @exception IOException if an input or output exception has occurred
+     */
+    public int readLine(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        int count = 0;
+        while (dst.hasRemaining()) {
+            if (pos == limit && !fill()) {
+                break;
+            }
+            int end = Math.min(limit, pos + dst.remaining());
+            int nl = indexOfNewline(pos, end);
+            int stop = (nl < 0 ? end : nl + 1);
+            int n = stop - pos;
+            dst.put(buf, pos, n);
+            pos = stop;
+            count += n;
+            if (nl >= 0) {
+                break;
+            }
+        }
+        return count > 0 ? count : -1;
+    }
+
+    /**
+     * Advances to the next line, which is then available from
+     * {@link #getLine}.
+     *
+     * @return <code>true</code> if a line was read, <code>false</code> if
+     * the end of the stream is reached
+     *
+     * @exception IOException if an input or output exception has occurred
+     */
+    public boolean nextLine() throws IOException {
+        int scanned = pos;
+        for (;;) {
+            int nl = indexOfNewline(scanned, limit);
+            if (nl >= 0) {
+                setLine(nl + 1);
+                return true;
+            }
+            if (limit - pos == buf.length) {
+                // the line does not fit in the buffer
+                setLine(limit);
+                return true;
+            }
+            scanned = limit - pos;
+            if (!fill()) {
+                if (pos < limit) {
+                    setLine(limit);
+                    return true;
+                }
+                line.limit(0);
+                return false;
+            }
+            // fill() moved the unread bytes to the start of the buffer
+            scanned += pos;
+        }
+    }
+
+    /**
+     * Gets the line read by the last call to {@link #nextLine}, as a
+     * read-only buffer whose position and limit delimit the line. The
+     * buffer is reused, and its content is only valid until the next call
+     * to a method of this reader.
+     *
+     * @return the current line
+     */
+    public ByteBuffer getLine() {
+        return line;
+    }
+
+    /**
+     * Reads bytes that follow the lines read so far, first from the
+     * buffer of this reader and then from the stream.
+     *
+     * @param b the array into which data is read
+     * @param off the offset at which data is stored
+     * @param len the maximum number of bytes to read
+     *
+     * @return the number of bytes read, or -1 if the end of the stream
+     * is reached
+     *
+     * @exception IOException if an input or output exception has occurred
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (pos < limit) {
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+        return eof ? -1 : in.read(b, off, len);
+    }
+
+    private void setLine(int end) {
+        line.limit(end);
+        line.position(pos);
+        pos = end;
+    }
+
+    private int indexOfNewline(int from, int to) {
+        final byte[] b = buf;
+        for (int i = from; i < to; i++) {
+            if (b[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Moves the unread bytes to the start of the buffer and reads more
+     * after them. Returns false if no byte could be read.
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+            line.limit(0);
+        }
+        int n;
+        do {
+            n = in.read(buf, limit, buf.length - limit);
+        } while (n == 0);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+}
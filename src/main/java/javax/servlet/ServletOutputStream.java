@@ -61,6 +61,8 @@ package javax.servlet;
 import java.io.OutputStream;
 import java.io.IOException;
 import java.io.CharConversionException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.MessageFormat;
 import java.util.ResourceBundle;
 
@@ -87,6 +89,27 @@ public abstract class ServletOutputStream extends OutputStream  {
     private static ResourceBundle lStrings =
         ResourceBundle.getBundle(LSTRING_FILE);
 
+    private static final int PRINT_BUFFER_SIZE = 512;
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    // the longest decimal representation of a long, "-9223372036854775808"
+    private static final int MAX_LONG_LENGTH = 20;
+
+    // The values printed for booleans, resolved once. Null if the
+    // localized value is not ISO 8859-1, so that print(String) reports it.
+    private static final byte[] TRUE_BYTES =
+        toLatin1(lStrings.getString("value.true"));
+    private static final byte[] FALSE_BYTES =
+        toLatin1(lStrings.getString("value.false"));
+
+    // Holds the bytes encoded by the print methods until they are
+    // written in bulk. Allocated on first use.
+    private byte[] printBuffer;
+
+    // Stages the content of direct buffers and files written by the
+    // default NIO write methods. Allocated on first use.
+    private ByteBuffer copyBuffer;
 
     
     /**
@@ -113,6 +136,11 @@ public abstract class ServletOutputStream extends OutputStream  {
     public void print(String s) throws IOException {
         if (s==null) s="null";
         int len = s.length();
+        if (len == 0) {
+            return;
+        }
+        byte[] buf = getPrintBuffer();
+        int pos = 0;
         for (int i = 0; i < len; i++) {
             char c = s.charAt (i);
 
@@ -123,14 +151,111 @@ public abstract class ServletOutputStream extends OutputStream  {
             // streams properly encode their output.
             //
             if ((c & 0xff00) != 0) {        // high order byte must be zero
+                // the characters before this one are still sent
+                if (pos > 0) {
+                    writePrinted(buf, 0, pos);
+                }
                 String errMsg = lStrings.getString("err.not_iso8859_1");
                 Object[] errArgs = new Object[1];
                 errArgs[0] = Character.valueOf(c);
                 errMsg = MessageFormat.format(errMsg, errArgs);
                 throw new CharConversionException(errMsg);
             }
-            write (c);
+            buf[pos++] = (byte) c;
+            if (pos == buf.length) {
+                writePrinted(buf, 0, pos);
+                pos = 0;
+            }
+        }
+        if (pos > 0) {
+            writePrinted(buf, 0, pos);
+        }
+    }
+
+
+    /**
+     * Writes bytes encoded by the <code>print</code> and
+     * <code>println</code> methods to the client.
+     *
+     * <p>The print methods encode their argument into a buffer owned by
+     * this stream and pass it to this method in blocks, rather than
+     * writing one byte at a time. The buffer is reused, so
+     * implementations must not keep a reference to it after this method
+     * returns.
+     *
+     * <p>The default implementation calls
+     * {@link java.io.OutputStream#write(byte[], int, int)}. A servlet
+     * container can override this method to copy the bytes directly into
+     * its own output buffer.
+     *
+     * @param b         the buffer holding the encoded bytes
+     *
+     * @param off       the offset of the first byte to write
+     *
+     * @param len       the number of bytes to write
+     *
+     * @exception IOException         if an input or output exception occurred
+     *
+     * @since Servlet 3.1
+     */
+    protected void writePrinted(byte[] b, int off, int len)
+            throws IOException {
+        write(b, off, len);
+    }
+
+
+    /*
+     * Formats a long directly into the print buffer, followed by the
+     * given ASCII suffix, and writes it in a single block.
+     */
+    private void printLong(long l, String suffix) throws IOException {
+        byte[] buf = getPrintBuffer();
+        int end = MAX_LONG_LENGTH;
+        // work on the negative value, which also covers Long.MIN_VALUE
+        boolean negative = l < 0;
+        long v = negative ? l : -l;
+        int pos = end;
+        do {
+            long q = v / 10;
+            buf[--pos] = (byte) ('0' + (q * 10 - v));
+            v = q;
+        } while (v != 0);
+        if (negative) {
+            buf[--pos] = '-';
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            buf[end++] = (byte) suffix.charAt(i);
+        }
+        writePrinted(buf, pos, end - pos);
+    }
+
+
+    private static byte[] toLatin1(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            char c = s.charAt(i);
+            if ((c & 0xff00) != 0) {
+                return null;
+            }
+            b[i] = (byte) c;
+        }
+        return b;
+    }
+
+
+    private ByteBuffer getCopyBuffer() {
+        if (copyBuffer == null) {
+            copyBuffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        }
+        return copyBuffer;
+    }
+
+
+    private byte[] getPrintBuffer() {
+        if (printBuffer == null) {
+            printBuffer = new byte[PRINT_BUFFER_SIZE];
         }
+        return printBuffer;
     }
 
 
@@ -148,13 +273,14 @@ public abstract class ServletOutputStream extends OutputStream  {
      */
 
     public void print(boolean b) throws IOException {
-        String msg;
-        if (b) {
-            msg = lStrings.getString("value.true");
-        } else {
-            msg = lStrings.getString("value.false");
+        byte[] value = b ? TRUE_BYTES : FALSE_BYTES;
+        if (value == null) {
+            print(lStrings.getString(b ? "value.true" : "value.false"));
+            return;
         }
-        print(msg);
+        byte[] buf = getPrintBuffer();
+        System.arraycopy(value, 0, buf, 0, value.length);
+        writePrinted(buf, 0, value.length);
     }
 
 
@@ -171,7 +297,14 @@ public abstract class ServletOutputStream extends OutputStream  {
      */
 
     public void print(char c) throws IOException {
-        print(String.valueOf(c));
+        if ((c & 0xff00) != 0) {
+            // let print(String) report the unencodable character
+            print(String.valueOf(c));
+            return;
+        }
+        byte[] buf = getPrintBuffer();
+        buf[0] = (byte) c;
+        writePrinted(buf, 0, 1);
     }
 
 
@@ -190,7 +323,7 @@ public abstract class ServletOutputStream extends OutputStream  {
      */  
 
     public void print(int i) throws IOException {
-        print(String.valueOf(i));
+        printLong(i, "");
     }
 
 
@@ -210,7 +343,7 @@ public abstract class ServletOutputStream extends OutputStream  {
      */
 
     public void print(long l) throws IOException {
-        print(String.valueOf(l));
+        printLong(l, "");
     }
 
 
@@ -229,7 +362,15 @@ public abstract class ServletOutputStream extends OutputStream  {
      */
 
     public void print(float f) throws IOException {
-        print(String.valueOf(f));
+        // Whole numbers below 10^7 are formatted by Float.toString as
+        // the integer followed by ".0", which needs no floating point
+        // formatting
+        if (f == (long) f && Math.abs(f) < 1.0e7f
+                && (f != 0 || Float.floatToRawIntBits(f) == 0)) {
+            printLong((long) f, ".0");
+        } else {
+            print(String.valueOf(f));
+        }
     }
 
 
@@ -247,7 +388,13 @@ public abstract class ServletOutputStream extends OutputStream  {
      */
 
     public void print(double d) throws IOException {
-        print(String.valueOf(d));
+        // see print(float)
+        if (d == (long) d && Math.abs(d) < 1.0e7
+                && (d != 0 || Double.doubleToRawLongBits(d) == 0)) {
+            printLong((long) d, ".0");
+        } else {
+            print(String.valueOf(d));
+        }
     }
 
 
@@ -263,7 +410,10 @@ public abstract class ServletOutputStream extends OutputStream  {
      */
 
     public void println() throws IOException {
-        print("\r\n");
+        byte[] buf = getPrintBuffer();
+        buf[0] = '\r';
+        buf[1] = '\n';
+        writePrinted(buf, 0, 2);
     }
 
 
@@ -403,6 +553,123 @@ public abstract class ServletOutputStream extends OutputStream  {
         println();
     }
 
+    /**
+     * Writes the remaining bytes of a <code>ByteBuffer</code> to the
+     * client. When this method returns, the position of the buffer is
+     * equal to its limit.
+     *
+     * <p>The default implementation writes the backing array of a heap
+     * buffer with {@link java.io.OutputStream#write(byte[], int, int)},
+     * and copies a direct buffer through a reused array. A servlet
+     * container can override this method to pass the buffer to its
+     * network channel without copying.
+     *
+     * <p>As with the other write methods, when a {@link WriteListener}
+     * is set this method must only be called when {@link #isReady}
+     * returns <code>true</code>.
+     *
+     * @param src                     the buffer whose remaining bytes are
+     *                                to be sent to the client
+     *
+     * @exception IOException         if an input or output exception occurred
+     *
+     * @since Servlet 3.1
+     */
+    public void write(ByteBuffer src) throws IOException {
+        if (src.hasArray()) {
+            write(src.array(), src.arrayOffset() + src.position(),
+                  src.remaining());
+            src.position(src.limit());
+            return;
+        }
+        ByteBuffer copy = getCopyBuffer();
+        byte[] buf = copy.array();
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), buf.length);
+            src.get(buf, 0, n);
+            write(buf, 0, n);
+        }
+    }
+
+
+
+    /**
+     * Writes the remaining bytes of a sequence of buffers to the client,
+     * in order. When this method returns, the position of each buffer is
+     * equal to its limit.
+     *
+     * <p>The default implementation calls {@link #write(ByteBuffer)}
+     * for each buffer. A servlet container can override this method to
+     * send the buffers with a single gathering write.
+     *
+     * @param srcs                    the buffers whose remaining bytes
+     *                                are to be sent to the client
+     *
+     * @exception IOException         if an input or output exception occurred
+     *
+     * @since Servlet 3.1
+     */
+    public void write(ByteBuffer[] srcs) throws IOException {
+        for (ByteBuffer src : srcs) {
+            write(src);
+        }
+    }
+
+
+
+    /**
+     * Sends a region of a file to the client. The position of the file
+     * channel is not modified.
+     *
+     * <p>The default implementation reads the file into a reused array
+     * and writes it with
+     * {@link java.io.OutputStream#write(byte[], int, int)}. A servlet
+     * container can override this method to transfer the file with
+     * {@link FileChannel#transferTo} or the <code>sendfile</code> system
+     * call, so that the file content is not copied onto the heap.
+     *
+     * @param src                     the channel of the file to send
+     *
+     * @param position                the position in the file of the
+     *                                first byte to send
+     *
+     * @param count                   the maximum number of bytes to send
+     *
+     * @return                        the number of bytes sent, which is
+     *                                less than <code>count</code> if the
+     *                                end of the file was reached
+     *
+     * @exception IOException         if an input or output exception occurred
+     *
+     * @exception IllegalArgumentException if <code>position</code> or
+     *                                <code>count</code> is negative
+     *
+     * @since Servlet 3.1
+     */
+    public long transferFrom(FileChannel src, long position, long count)
+            throws IOException {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException();
+        }
+        ByteBuffer copy = getCopyBuffer();
+        long transferred = 0;
+        while (transferred < count) {
+            copy.clear();
+            if (count - transferred < copy.capacity()) {
+                copy.limit((int) (count - transferred));
+            }
+            int n = src.read(copy, position + transferred);
+            if (n < 0) {
+                break;
+            }
+            write(copy.array(), 0, n);
+            transferred += n;
+        }
+        return transferred;
+    }
+
+
+
     /**
      * This method can be used to determine if data can be written without blocking.
      *
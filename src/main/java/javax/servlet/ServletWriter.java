@@ -0,0 +1,626 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.Formatter;
+import java.util.Locale;
+
+/**
+ * A {@link PrintWriter} that encodes characters straight into a byte
+ * buffer and writes it to an output stream, for use as the writer of a
+ * single response, for example one returned by an override of
+ * {@link ServletResponseWrapper#getWriter}.
+ *
+ * <p>Unlike a <code>PrintWriter</code> over an
+ * <code>OutputStreamWriter</code>, this writer takes no locks and is not
+ * safe for use by several threads at a time. UTF-8, ISO-8859-1 and
+ * US-ASCII are encoded without a <code>CharsetEncoder</code>, and numbers
+ * are printed without intermediate strings when the encoding is one of
+ * these. Characters that cannot be encoded are written as <code>'?'</code>,
+ * as an <code>OutputStreamWriter</code> would.
+ *
+ * <p>As with any <code>PrintWriter</code>, methods do not throw
+ * <code>IOException</code>; use {@link #checkError} to find out whether
+ * an error occurred.
+ *
+ * @since Servlet 3.1
+ */
+public class ServletWriter extends PrintWriter {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final int UTF_8 = 0;
+    private static final int SINGLE_BYTE = 1;
+    private static final int OTHER = 2;
+
+    // the lock and underlying writer of PrintWriter are not used
+    private static final Writer UNUSED = new Writer() {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final OutputStream out;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int count;
+
+    private final int mode;
+    // exclusive upper bound of the characters encoded as a single byte
+    private final char singleByteLimit;
+    private final CharsetEncoder encoder;
+
+    private char[] chars;
+    private final byte[] digits = new byte[20];
+    // high surrogate waiting for the next character
+    private char surrogate;
+
+    private final String lineSeparator = System.lineSeparator();
+    private Formatter formatter;
+
+    private boolean error;
+    private boolean closed;
+
+    /**
+     * Constructs a writer that encodes characters with the named charset.
+     *
+     * @param out the stream to write the encoded characters to
+     * @param charsetName the name of the charset
+     *
+     * @throws UnsupportedEncodingException if the charset is not supported
+     */
+    public ServletWriter(OutputStream out, String charsetName)
+            throws UnsupportedEncodingException {
+        this(out, lookup(charsetName));
+    }
+
+    /**
+     * Constructs a writer that encodes characters with the given charset.
+     *
+     * @param out the stream to write the encoded characters to
+     * @param charset the charset
+     */
+    public ServletWriter(OutputStream out, Charset charset) {
+        super(UNUSED);
+        if (out == null || charset == null) {
+            throw new NullPointerException();
+        }
+        this.out = out;
+        String name = charset.name();
+        if ("UTF-8".equals(name)) {
+            mode = UTF_8;
+            singleByteLimit = 0x80;
+            encoder = null;
+        } else if ("ISO-8859-1".equals(name)) {
+            mode = SINGLE_BYTE;
+            singleByteLimit = 0x100;
+            encoder = null;
+        } else if ("US-ASCII".equals(name)) {
+            mode = SINGLE_BYTE;
+            singleByteLimit = 0x80;
+            encoder = null;
+        } else {
+            mode = OTHER;
+            singleByteLimit = 0;
+            encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+    }
+
+    private static Charset lookup(String charsetName)
+            throws UnsupportedEncodingException {
+        if (charsetName == null) {
+            throw new NullPointerException("charsetName");
+        }
+        try {
+            return Charset.forName(charsetName);
+        } catch (IllegalCharsetNameException e) {
+            throw new UnsupportedEncodingException(charsetName);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(charsetName);
+        }
+    }
+
+    @Override
+    public void write(int c) {
+        if (!ensureOpen()) {
+            return;
+        }
+        try {
+            if (c < singleByteLimit && surrogate == 0) {
+                if (count == buf.length) {
+                    flushBuffer();
+                }
+                buf[count++] = (byte) c;
+            } else {
+                char[] cb = chars();
+                cb[0] = (char) c;
+                encode(cb, 0, 1);
+            }
+        } catch (IOException e) {
+            setError();
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        if (off < 0 || len < 0 || off + len > cbuf.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (!ensureOpen()) {
+            return;
+        }
+        try {
+            encode(cbuf, off, off + len);
+        } catch (IOException e) {
+            setError();
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf) {
+        write(cbuf, 0, cbuf.length);
+    }
+
+    @Override
+    public void write(String s, int off, int len) {
+        if (off < 0 || len < 0 || off + len > s.length()) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (!ensureOpen()) {
+            return;
+        }
+        try {
+            char[] cb = chars();
+            int end = off + len;
+            while (off < end) {
+                int n = Math.min(end - off, CHUNK_SIZE);
+                s.getChars(off, off + n, cb, 0);
+                encode(cb, 0, n);
+                off += n;
+            }
+        } catch (IOException e) {
+            setError();
+        }
+    }
+
+    @Override
+    public void write(String s) {
+        write(s, 0, s.length());
+    }
+
+    @Override
+    public void print(boolean b) {
+        write(b ? "true" : "false");
+    }
+
+    @Override
+    public void print(char c) {
+        write(c);
+    }
+
+    @Override
+    public void print(int i) {
+        printLong(i);
+    }
+
+    @Override
+    public void print(long l) {
+        printLong(l);
+    }
+
+    @Override
+    public void print(float f) {
+        write(String.valueOf(f));
+    }
+
+    @Override
+    public void print(double d) {
+        write(String.valueOf(d));
+    }
+
+    @Override
+    public void print(char[] s) {
+        write(s, 0, s.length);
+    }
+
+    @Override
+    public void print(String s) {
+        write(s == null ? "null" : s);
+    }
+
+    @Override
+    public void print(Object obj) {
+        write(String.valueOf(obj));
+    }
+
+    @Override
+    public void println() {
+        write(lineSeparator);
+    }
+
+    @Override
+    public void println(boolean x) {
+        print(x);
+        println();
+    }
+
+    @Override
+    public void println(char x) {
+        print(x);
+        println();
+    }
+
+    @Override
+    public void println(int x) {
+        print(x);
+        println();
+    }
+
+    @Override
+    public void println(long x) {
+        print(x);
+        println();
+    }
+
+    @Override
+    public void println(float x) {
+        print(x);
+        println();
+    }
+
+    @Override
+    public void println(double x) {
+        print(x);
+        println();
+    }
+
+    @Override
+    public void println(char[] x) {
+        print(x);
+        println();
+    }
+
+    @Override
+    public void println(String x) {
+        print(x);
+        println();
+    }
+
+    @Override
+    public void println(Object x) {
+        print(String.valueOf(x));
+        println();
+    }
+
+    @Override
+    public PrintWriter format(String format, Object... args) {
+        return format(Locale.getDefault(Locale.Category.FORMAT), format, args);
+    }
+
+    @Override
+    public PrintWriter format(Locale l, String format, Object... args) {
+        if (ensureOpen()) {
+            if (formatter == null || formatter.locale() != l) {
+                formatter = new Formatter(this, l);
+            }
+            formatter.format(l, format, args);
+        }
+        return this;
+    }
+
+    @Override
+    public PrintWriter append(CharSequence csq, int start, int end) {
+        CharSequence cs = (csq == null ? "null" : csq);
+        write(cs.subSequence(start, end).toString());
+        return this;
+    }
+
+    /**
+     * Writes the buffered bytes to the underlying stream and flushes it.
+     */
+    @Override
+    public void flush() {
+        if (closed) {
+            return;
+        }
+        try {
+            flushBuffer();
+            out.flush();
+        } catch (IOException e) {
+            setError();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes, including any pending state of the
+     * encoder, and closes the underlying stream.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            if (mode == OTHER) {
+                CharBuffer cb = (surrogate == 0 ? CharBuffer.allocate(0)
+                        : CharBuffer.wrap(new char[] { surrogate }));
+                encodeBuffer(cb, true);
+                for (;;) {
+                    ByteBuffer bb = ByteBuffer.wrap(buf, count, buf.length - count);
+                    CoderResult r = encoder.flush(bb);
+                    count = bb.position();
+                    if (!r.isOverflow()) {
+                        break;
+                    }
+                    flushBuffer();
+                }
+            } else if (surrogate != 0) {
+                // an unpaired high surrogate
+                surrogate = 0;
+                put((byte) '?');
+            }
+            flushBuffer();
+            out.close();
+        } catch (IOException e) {
+            setError();
+        } finally {
+            closed = true;
+        }
+    }
+
+    /**
+     * Flushes this writer if it is not closed and returns whether an
+     * error occurred.
+     *
+     * @return <code>true</code> if an error occurred
+     */
+    @Override
+    public boolean checkError() {
+        flush();
+        return error;
+    }
+
+    @Override
+    protected void setError() {
+        error = true;
+    }
+
+    @Override
+    protected void clearError() {
+        error = false;
+    }
+
+    private boolean ensureOpen() {
+        if (closed) {
+            setError();
+            return false;
+        }
+        return true;
+    }
+
+    private char[] chars() {
+        if (chars == null) {
+            chars = new char[CHUNK_SIZE];
+        }
+        return chars;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            int n = count;
+            count = 0;
+            out.write(buf, 0, n);
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (count == buf.length) {
+            flushBuffer();
+        }
+        buf[count++] = b;
+    }
+
+    private void printLong(long v) {
+        if (mode == OTHER) {
+            write(String.valueOf(v));
+            return;
+        }
+        if (!ensureOpen()) {
+            return;
+        }
+        try {
+            if (surrogate != 0) {
+                surrogate = 0;
+                put((byte) '?');
+            }
+            // work on the negative value, which covers Long.MIN_VALUE
+            long n = (v < 0 ? v : -v);
+            int p = digits.length;
+            do {
+                long q = n / 10;
+                digits[--p] = (byte) ('0' + (q * 10 - n));
+                n = q;
+            } while (n != 0);
+            if (v < 0) {
+                digits[--p] = '-';
+            }
+            int len = digits.length - p;
+            if (buf.length - count < len) {
+                flushBuffer();
+            }
+            System.arraycopy(digits, p, buf, count, len);
+            count += len;
+        } catch (IOException e) {
+            setError();
+        }
+    }
+
+    private void encode(char[] c, int off, int end) throws IOException {
+        if (mode == OTHER) {
+            encodeOther(c, off, end);
+            return;
+        }
+        int i = off;
+        if (surrogate != 0 && i < end) {
+            char high = surrogate;
+            surrogate = 0;
+            char low = c[i];
+            if (Character.isLowSurrogate(low)) {
+                putSupplementary(Character.toCodePoint(high, low));
+                i++;
+            } else {
+                put((byte) '?');
+            }
+        }
+        final byte[] b = buf;
+        final char limit = singleByteLimit;
+        while (i < end) {
+            char ch = c[i];
+            if (ch < limit) {
+                // run of single byte characters
+                if (count == b.length) {
+                    flushBuffer();
+                }
+                int p = count;
+                int stop = i + Math.min(end - i, b.length - p);
+                while (i < stop && (ch = c[i]) < limit) {
+                    b[p++] = (byte) ch;
+                    i++;
+                }
+                count = p;
+                continue;
+            }
+            if (Character.isHighSurrogate(ch)) {
+                if (i + 1 == end) {
+                    surrogate = ch;
+                    return;
+                }
+                char low = c[i + 1];
+                if (Character.isLowSurrogate(low)) {
+                    putSupplementary(Character.toCodePoint(ch, low));
+                    i += 2;
+                    continue;
+                }
+                put((byte) '?');
+            } else if (mode == SINGLE_BYTE || Character.isLowSurrogate(ch)) {
+                put((byte) '?');
+            } else {
+                if (b.length - count < 3) {
+                    flushBuffer();
+                }
+                int p = count;
+                if (ch < 0x800) {
+                    b[p++] = (byte) (0xc0 | (ch >> 6));
+                } else {
+                    b[p++] = (byte) (0xe0 | (ch >> 12));
+                    b[p++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+                }
+                b[p++] = (byte) (0x80 | (ch & 0x3f));
+                count = p;
+            }
+            i++;
+        }
+    }
+
+    private void putSupplementary(int cp) throws IOException {
+        if (mode == SINGLE_BYTE) {
+            put((byte) '?');
+            return;
+        }
+        if (buf.length - count < 4) {
+            flushBuffer();
+        }
+        buf[count++] = (byte) (0xf0 | (cp >> 18));
+        buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        buf[count++] = (byte) (0x80 | (cp & 0x3f));
+    }
+
+    private void encodeOther(char[] c, int off, int end) throws IOException {
+        while (surrogate != 0 && off < end) {
+            CharBuffer pair = CharBuffer.wrap(new char[] { surrogate, c[off++] });
+            surrogate = 0;
+            encodeBuffer(pair, false);
+        }
+        if (off < end) {
+            encodeBuffer(CharBuffer.wrap(c, off, end - off), false);
+        }
+    }
+
+    private void encodeBuffer(CharBuffer cb, boolean endOfInput)
+            throws IOException {
+        for (;;) {
+            ByteBuffer bb = ByteBuffer.wrap(buf, count, buf.length - count);
+            CoderResult r = encoder.encode(cb, bb, endOfInput);
+            count = bb.position();
+            if (!r.isOverflow()) {
+                break;
+            }
+            flushBuffer();
+        }
+        if (cb.hasRemaining()) {
+            // only a trailing high surrogate is left unconsumed
+            surrogate = cb.get();
+        }
+    }
+}
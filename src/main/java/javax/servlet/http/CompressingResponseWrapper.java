@@ -0,0 +1,776 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletWriter;
+import javax.servlet.WriteListener;
+
+/**
+ * Compresses the body of a response with the <code>gzip</code> or
+ * <code>deflate</code> content coding, as accepted by the client.
+ *
+ * <p>A filter wraps the response, passes the wrapper down the chain,
+ * calls {@link #finish} when the chain returns and {@link #release} in
+ * any case:
+ * <pre>
+ *    CompressingResponseWrapper wrapper =
+ *        new CompressingResponseWrapper(req, resp);
+ *    try {
+ *        chain.doFilter(req, wrapper);
+ *        wrapper.finish();
+ *    } finally {
+ *        wrapper.release();
+ *    }
+ * </pre>
+ *
+ * <p>The body is compressed incrementally as it is written. The first
+ * bytes are held back until more than the threshold has been written,
+ * so that small responses are sent as they are, with their
+ * <code>Content-Length</code>. The body is not compressed either when
+ * the client does not accept a supported coding, when the response
+ * already has a <code>Content-Encoding</code>, when its status does not
+ * allow a body or is 206 (Partial Content), or when
+ * {@link #isCompressible} rejects its content type.
+ *
+ * <p>Flushing the response before any byte of the body has been written
+ * does not commit it, so that the decision to compress can still be
+ * made with the first bytes.
+ *
+ * <p>When the body is compressed, the <code>Content-Encoding</code>
+ * header is set and any <code>Content-Length</code> set by the servlet
+ * is dropped. When it is not, a <code>Content-Length</code> set after
+ * the body has started is passed on to the response.
+ * <code>Vary: Accept-Encoding</code> is added to every response whose
+ * content type is compressible.
+ *
+ * <p>Each thread keeps one idle <code>Deflater</code> and its output
+ * buffer for each coding, which responses reuse instead of allocating
+ * their own.
+ *
+ * @since Servlet 3.1
+ */
+public class CompressingResponseWrapper extends HttpServletResponseWrapper {
+
+    /**
+     * The default number of bytes above which the body is compressed.
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final String LSTRING_FILE =
+        "javax.servlet.http.LocalStrings";
+    private static ResourceBundle lStrings =
+        ResourceBundle.getBundle(LSTRING_FILE);
+
+    private final String coding;
+    private final int threshold;
+
+    private CompressingOutputStream stream;
+    private PrintWriter writer;
+    private long contentLength = -1;
+
+    /**
+     * Constructs a wrapper compressing responses above the default
+     * threshold.
+     *
+     * @param request the request, whose <code>Accept-Encoding</code>
+     * header selects the content coding
+     * @param response the response to wrap
+     *
+     * @throws IllegalArgumentException if the response is null
+     */
+    public CompressingResponseWrapper(HttpServletRequest request,
+            HttpServletResponse response) {
+        this(request, response, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Constructs a wrapper compressing responses whose body is longer
+     * than the given threshold.
+     *
+     * @param request the request, whose <code>Accept-Encoding</code>
+     * header selects the content coding
+     * @param response the response to wrap
+     * @param threshold the number of bytes a body must exceed to be
+     * compressed
+     *
+     * @throws IllegalArgumentException if the response is null or the
+     * threshold is negative
+     */
+    public CompressingResponseWrapper(HttpServletRequest request,
+            HttpServletResponse response, int threshold) {
+        super(response);
+        if (threshold < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.coding = selectCoding(request.getHeader("Accept-Encoding"));
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns whether a body of the given content type is worth
+     * compressing. The default implementation rejects images other than
+     * SVG, audio, video, fonts in compressed formats and archives.
+     *
+     * @param contentType the content type of the response, or
+     * <code>null</code> if none has been set
+     *
+     * @return <code>true</code> if the body should be compressed
+     */
+    protected boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return true;
+        }
+        String type = contentType.toLowerCase(Locale.ENGLISH);
+        if (type.startsWith("image/")) {
+            return type.startsWith("image/svg");
+        }
+        return !(type.startsWith("audio/")
+                 || type.startsWith("video/")
+                 || type.startsWith("font/woff")
+                 || type.startsWith("application/zip")
+                 || type.startsWith("application/gzip")
+                 || type.startsWith("application/x-gzip")
+                 || type.startsWith("application/x-compress")
+                 || type.startsWith("application/x-bzip2")
+                 || type.startsWith("application/x-7z-compressed")
+                 || type.startsWith("application/x-rar-compressed"));
+    }
+
+    /**
+     * Completes the body: sends a body held back below the threshold
+     * with its length, or writes the end of the compressed data. Must be
+     * called once the servlet has produced the whole response.
+     *
+     * @exception IOException if an input or output exception occurred
+     */
+    public void finish() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (stream != null) {
+            stream.finish();
+        } else if (contentLength >= 0) {
+            // no body was written, as for a HEAD request
+            super.setContentLengthLong(contentLength);
+        }
+    }
+
+    /**
+     * Returns the compressor used by the response to the pool, without
+     * completing the body. Must be called once the response is done
+     * with, including when the chain failed and {@link #finish} was not
+     * called; later calls have no effect.
+     */
+    public void release() {
+        if (stream != null) {
+            stream.release();
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException(
+                lStrings.getString("err.ise.getOutputStream"));
+        }
+        return getStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (stream != null) {
+                throw new IllegalStateException(
+                    lStrings.getString("err.ise.getWriter"));
+            }
+            writer = new ServletWriter(getStream(), getCharacterEncoding());
+        }
+        return writer;
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        setContentLengthLong(len);
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        // forwarded only if the body is not compressed
+        contentLength = len;
+        if (stream != null && stream.isPassingThrough()) {
+            super.setContentLengthLong(len);
+        }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (isContentLength(name)) {
+            setContentLengthLong(parseLength(value));
+        } else {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (isContentLength(name)) {
+            setContentLengthLong(parseLength(value));
+        } else {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if (isContentLength(name)) {
+            setContentLengthLong(value);
+        } else {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        if (isContentLength(name)) {
+            setContentLengthLong(value);
+        } else {
+            super.addIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (stream != null) {
+            stream.flush();
+            if (stream.isDecided()) {
+                super.flushBuffer();
+            }
+        }
+        // otherwise no body has been written yet, and committing the
+        // response now would settle its headers before the decision to
+        // compress
+    }
+
+    @Override
+    public void resetBuffer() {
+        if (writer != null) {
+            // move the characters held by the writer into the stream,
+            // where they are discarded with the rest
+            writer.flush();
+        }
+        super.resetBuffer();
+        if (stream != null) {
+            stream.resetBuffer();
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        if (stream != null) {
+            stream.release();
+            stream = null;
+        }
+        writer = null;
+        contentLength = -1;
+    }
+
+    private CompressingOutputStream getStream() {
+        if (stream == null) {
+            stream = new CompressingOutputStream(this, threshold);
+        }
+        return stream;
+    }
+
+    /*
+     * Called by the stream when the first bytes beyond the threshold are
+     * written, or when it is flushed. Returns the coding to compress
+     * with, after setting the headers for it, or null to send the body
+     * as it is.
+     */
+    // file private
+    String startBody(boolean complete, long bufferedLength) {
+        HttpServletResponse response = (HttpServletResponse) getResponse();
+        int status = response.getStatus();
+        boolean compressible = isCompressible(getContentType())
+            && status != SC_NO_CONTENT && status != SC_NOT_MODIFIED
+            && status != SC_PARTIAL_CONTENT && status >= SC_OK
+            && !response.containsHeader("Content-Encoding");
+        if (compressible) {
+            addVary(response);
+        }
+        if (compressible && coding != null && !complete) {
+            response.setHeader("Content-Encoding", coding);
+            return coding;
+        }
+        if (complete && bufferedLength > 0) {
+            response.setContentLengthLong(bufferedLength);
+        } else if (contentLength >= 0) {
+            response.setContentLengthLong(contentLength);
+        }
+        return null;
+    }
+
+    private static void addVary(HttpServletResponse response) {
+        String vary = response.getHeader("Vary");
+        if (vary == null) {
+            response.setHeader("Vary", "Accept-Encoding");
+        } else if (!vary.trim().equals("*") && vary.toLowerCase(
+                Locale.ENGLISH).indexOf("accept-encoding") == -1) {
+            response.addHeader("Vary", "Accept-Encoding");
+        }
+    }
+
+    private static boolean isContentLength(String name) {
+        return "content-length".equalsIgnoreCase(name);
+    }
+
+    private static long parseLength(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /*
+     * Selects gzip, or else deflate, if the Accept-Encoding header
+     * accepts it with a non-zero quality value.
+     */
+    private static String selectCoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        boolean any = false;
+        boolean gzipListed = false;
+        boolean deflateListed = false;
+        for (String element : acceptEncoding.split(",")) {
+            int semi = element.indexOf(';');
+            String name = (semi == -1) ? element : element.substring(0, semi);
+            name = name.trim().toLowerCase(Locale.ENGLISH);
+            boolean accepted = semi == -1
+                || parseQuality(element.substring(semi + 1)) > 0;
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzip = accepted;
+                gzipListed = true;
+            } else if (name.equals("deflate")) {
+                deflate = accepted;
+                deflateListed = true;
+            } else if (name.equals("*")) {
+                any = accepted;
+            }
+        }
+        if (gzip || (any && !gzipListed)) {
+            return "gzip";
+        }
+        if (deflate || (any && !deflateListed)) {
+            return "deflate";
+        }
+        return null;
+    }
+
+    private static float parseQuality(String params) {
+        for (String param : params.split(";")) {
+            param = param.trim();
+            if (param.startsWith("q=") || param.startsWith("Q=")) {
+                try {
+                    return Float.parseFloat(param.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
+
+
+/*
+ * A Deflater with its output buffer and checksum, reused by the
+ * responses compressed on a thread. One instance per coding is kept for
+ * each thread.
+ */
+// file private
+final class PooledDeflater {
+
+    private static final ThreadLocal<PooledDeflater> GZIP =
+        new ThreadLocal<PooledDeflater>();
+    private static final ThreadLocal<PooledDeflater> DEFLATE =
+        new ThreadLocal<PooledDeflater>();
+
+    final Deflater deflater;
+    final CRC32 crc = new CRC32();
+    final byte[] buffer = new byte[8192];
+    private final boolean gzip;
+
+    private PooledDeflater(boolean gzip) {
+        this.gzip = gzip;
+        // gzip writes its own header and trailer around raw deflate data
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+    }
+
+    static PooledDeflater acquire(boolean gzip) {
+        ThreadLocal<PooledDeflater> pool = gzip ? GZIP : DEFLATE;
+        PooledDeflater d = pool.get();
+        if (d == null) {
+            return new PooledDeflater(gzip);
+        }
+        pool.set(null);
+        return d;
+    }
+
+    void release() {
+        ThreadLocal<PooledDeflater> pool = gzip ? GZIP : DEFLATE;
+        if (pool.get() == null) {
+            deflater.reset();
+            crc.reset();
+            pool.set(this);
+        } else {
+            deflater.end();
+        }
+    }
+}
+
+
+/*
+ * Output stream of CompressingResponseWrapper. Buffers up to the
+ * threshold, then either compresses into the wrapped stream or passes
+ * the data through.
+ */
+// file private
+class CompressingOutputStream extends ServletOutputStream {
+
+    private static final byte[] GZIP_HEADER = {
+        (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static final ResourceBundle lStrings =
+        ResourceBundle.getBundle("javax.servlet.http.LocalStrings");
+
+    private static final int UNDECIDED = 0;
+    private static final int COMPRESSING = 1;
+    private static final int PASSTHROUGH = 2;
+    private static final int FINISHED = 3;
+
+    private final CompressingResponseWrapper wrapper;
+    private final byte[] held;
+    private final byte[] single = new byte[1];
+    private int heldLength;
+    private int state = UNDECIDED;
+
+    private ServletOutputStream out;
+    private PooledDeflater compressor;
+    private boolean gzip;
+    private boolean headerWritten;
+    private long uncompressedLength;
+
+    // file private
+    CompressingOutputStream(CompressingResponseWrapper wrapper,
+                            int threshold) {
+        this.wrapper = wrapper;
+        this.held = new byte[threshold];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        switch (state) {
+        case UNDECIDED:
+            if (heldLength + len <= held.length) {
+                System.arraycopy(b, off, held, heldLength, len);
+                heldLength += len;
+                return;
+            }
+            try {
+                decide(false);
+            } catch (IOException e) {
+                release();
+                throw e;
+            }
+            write(b, off, len);
+            return;
+        case COMPRESSING:
+            try {
+                compress(b, off, len);
+            } catch (IOException e) {
+                release();
+                throw e;
+            }
+            return;
+        case PASSTHROUGH:
+            out.write(b, off, len);
+            return;
+        default:
+            throw new IOException(lStrings.getString("err.io.closed"));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (state == UNDECIDED) {
+            if (heldLength == 0) {
+                // nothing to send, leave the decision to the first bytes
+                return;
+            }
+            try {
+                decide(false);
+            } catch (IOException e) {
+                release();
+                throw e;
+            }
+        }
+        if (state == COMPRESSING) {
+            try {
+                writeGzipHeader();
+                syncFlush();
+            } catch (IOException e) {
+                release();
+                throw e;
+            }
+        }
+        if (out != null && state != FINISHED) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    @Override
+    public boolean isReady() {
+        try {
+            return getOut().isReady();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+        try {
+            getOut().setWriteListener(writeListener);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // file private
+    void finish() throws IOException {
+        try {
+            switch (state) {
+            case UNDECIDED:
+                decide(true);
+                if (heldLength > 0) {
+                    out.write(held, 0, heldLength);
+                }
+                break;
+            case COMPRESSING:
+                writeGzipHeader();
+                compressor.deflater.finish();
+                drainFinished();
+                if (gzip) {
+                    writeGzipTrailer();
+                }
+                break;
+            default:
+                break;
+            }
+        } finally {
+            release();
+            state = FINISHED;
+        }
+    }
+
+    // file private
+    boolean isDecided() {
+        return state != UNDECIDED;
+    }
+
+    // file private
+    boolean isPassingThrough() {
+        return state == PASSTHROUGH;
+    }
+
+    // file private
+    void resetBuffer() {
+        heldLength = 0;
+        if (state == COMPRESSING) {
+            // the response stays compressed, start a new stream
+            compressor.deflater.reset();
+            compressor.crc.reset();
+            headerWritten = false;
+            uncompressedLength = 0;
+        }
+    }
+
+    /*
+     * Returns the compressor to the pool. A compressed body cannot be
+     * written to any more, as after a write to the wrapped stream failed.
+     */
+    // file private
+    void release() {
+        if (compressor != null) {
+            compressor.release();
+            compressor = null;
+        }
+        if (state == COMPRESSING) {
+            state = FINISHED;
+        }
+    }
+
+    private ServletOutputStream getOut() throws IOException {
+        if (out == null) {
+            out = wrapper.getResponse().getOutputStream();
+        }
+        return out;
+    }
+
+    private void decide(boolean complete) throws IOException {
+        String coding = wrapper.startBody(complete, heldLength);
+        getOut();
+        if (coding == null) {
+            state = PASSTHROUGH;
+            if (!complete && heldLength > 0) {
+                out.write(held, 0, heldLength);
+                heldLength = 0;
+            }
+            return;
+        }
+        gzip = coding.equals("gzip");
+        compressor = PooledDeflater.acquire(gzip);
+        state = COMPRESSING;
+        if (heldLength > 0) {
+            compress(held, 0, heldLength);
+            heldLength = 0;
+        }
+    }
+
+    private void compress(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        writeGzipHeader();
+        if (gzip) {
+            compressor.crc.update(b, off, len);
+        }
+        uncompressedLength += len;
+        Deflater deflater = compressor.deflater;
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            int n = deflater.deflate(compressor.buffer, 0,
+                                     compressor.buffer.length);
+            if (n > 0) {
+                out.write(compressor.buffer, 0, n);
+            }
+        }
+    }
+
+    /*
+     * Writes out everything the deflater holds so that the client can
+     * decompress all data written so far.
+     */
+    private void syncFlush() throws IOException {
+        Deflater deflater = compressor.deflater;
+        byte[] buf = compressor.buffer;
+        int n;
+        do {
+            // a full buffer means more output may be pending
+            n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+            if (n > 0) {
+                out.write(buf, 0, n);
+            }
+        } while (n == buf.length);
+    }
+
+    private void drainFinished() throws IOException {
+        Deflater deflater = compressor.deflater;
+        byte[] buf = compressor.buffer;
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf, 0, buf.length);
+            if (n > 0) {
+                out.write(buf, 0, n);
+            }
+        }
+    }
+
+    private void writeGzipHeader() throws IOException {
+        if (gzip && !headerWritten) {
+            out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+        }
+        headerWritten = true;
+    }
+
+    private void writeGzipTrailer() throws IOException {
+        byte[] trailer = new byte[8];
+        putIntLE(trailer, 0, (int) compressor.crc.getValue());
+        putIntLE(trailer, 4, (int) uncompressedLength);
+        out.write(trailer, 0, trailer.length);
+    }
+
+    private static void putIntLE(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >> 8);
+        b[off + 2] = (byte) (v >> 16);
+        b[off + 3] = (byte) (v >> 24);
+    }
+}
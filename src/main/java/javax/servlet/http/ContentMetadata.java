@@ -0,0 +1,142 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+/**
+ * Describes the representation that a GET request for a resource would
+ * return, without its body: the content length, the content type, the
+ * entity-tag and the last modification time.
+ *
+ * <p>A servlet returns a <code>ContentMetadata</code> object from
+ * {@link HttpServlet#getContentMetadata} to let HEAD requests be
+ * answered from these values alone, instead of running
+ * <code>doGet</code> and discarding the body it generates. Its
+ * entity-tag and last modification time also serve to evaluate
+ * conditional requests.
+ *
+ * <p>Instances are immutable.
+ *
+ * @see HttpServlet#getContentMetadata
+ *
+ * @since Servlet 3.1
+ */
+public class ContentMetadata {
+
+    private final long contentLength;
+    private final String contentType;
+    private final String eTag;
+    private final long lastModified;
+
+    /**
+     * Constructs an instance with the given content length and content
+     * type, and no entity-tag or last modification time.
+     *
+     * @param contentLength the length of the body in bytes, or -1 if it
+     * is not known
+     * @param contentType the content type of the body, or
+     * <code>null</code> if it is not known
+     */
+    public ContentMetadata(long contentLength, String contentType) {
+        this(contentLength, contentType, null, -1);
+    }
+
+    /**
+     * Constructs an instance with all values specified.
+     *
+     * @param contentLength the length of the body in bytes, or -1 if it
+     * is not known
+     * @param contentType the content type of the body, or
+     * <code>null</code> if it is not known
+     * @param eTag the entity-tag of the representation as it appears
+     * in the <code>ETag</code> header, or <code>null</code> if it is not
+     * known
+     * @param lastModified the time the representation was last modified,
+     * in milliseconds since midnight January 1, 1970 GMT, or -1 if it is
+     * not known
+     */
+    public ContentMetadata(long contentLength, String contentType,
+            String eTag, long lastModified) {
+        this.contentLength = contentLength;
+        this.contentType = contentType;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Gets the length of the body in bytes.
+     *
+     * @return the length of the body in bytes, or -1 if it is not known
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Gets the content type of the body.
+     *
+     * @return the content type of the body, or <code>null</code> if it
+     * is not known
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Gets the entity-tag of the representation.
+     *
+     * @return the entity-tag as it appears in the <code>ETag</code>
+     * header, or <code>null</code> if it is not known
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Gets the time the representation was last modified.
+     *
+     * @return the time the representation was last modified, in
+     * milliseconds since midnight January 1, 1970 GMT, or -1 if it is
+     * not known
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+}
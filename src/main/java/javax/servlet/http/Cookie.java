@@ -103,7 +103,9 @@ public class Cookie implements Cloneable, Serializable {
 
     private static final long serialVersionUID = -6454587001725327448L;
 
-    private static final String TSPECIALS;
+    // whether names must be RFC 2109 tokens, rather than only exclude
+    // the separators of the Netscape specification
+    private static final boolean RFC2109_NAMES;
 
     private static final String LSTRING_FILE =
         "javax.servlet.http.LocalStrings";
@@ -112,11 +114,7 @@ public class Cookie implements Cloneable, Serializable {
         ResourceBundle.getBundle(LSTRING_FILE);
 
     static {
-        if (Boolean.valueOf(System.getProperty("org.glassfish.web.rfc2109_cookie_names_enforced", "true"))) {
-            TSPECIALS = "/()<>@,;:\\\"[]?={} \t";
-        } else {
-            TSPECIALS = ",; ";
-        }
+        RFC2109_NAMES = Boolean.valueOf(System.getProperty("org.glassfish.web.rfc2109_cookie_names_enforced", "true"));
     }
     
     //
@@ -175,16 +173,7 @@ public class Cookie implements Cloneable, Serializable {
             throw new IllegalArgumentException(
                     lStrings.getString("err.cookie_name_blank"));
         }
-        if (!isToken(name) ||
-                name.equalsIgnoreCase("Comment") || // rfc2019
-                name.equalsIgnoreCase("Discard") || // 2019++
-                name.equalsIgnoreCase("Domain") ||
-                name.equalsIgnoreCase("Expires") || // (old cookies)
-                name.equalsIgnoreCase("Max-Age") || // rfc2019
-                name.equalsIgnoreCase("Path") ||
-                name.equalsIgnoreCase("Secure") ||
-                name.equalsIgnoreCase("Version") ||
-                name.startsWith("$")) {
+        if (!isValidName(name)) {
             String errMsg = lStrings.getString("err.cookie_name_is_token");
             Object[] errArgs = new Object[1];
             errArgs[0] = name;
@@ -438,6 +427,24 @@ public class Cookie implements Cloneable, Serializable {
         version = v;
     }
 
+    /*
+     * Tests whether a non-empty string is acceptable as the name of a
+     * cookie: a token that is not reserved for use by the cookie
+     * protocol.
+     */
+    static boolean isValidName(String name) {
+        return isToken(name) &&
+                !name.equalsIgnoreCase("Comment") && // rfc2019
+                !name.equalsIgnoreCase("Discard") && // 2019++
+                !name.equalsIgnoreCase("Domain") &&
+                !name.equalsIgnoreCase("Expires") && // (old cookies)
+                !name.equalsIgnoreCase("Max-Age") && // rfc2019
+                !name.equalsIgnoreCase("Path") &&
+                !name.equalsIgnoreCase("Secure") &&
+                !name.equalsIgnoreCase("Version") &&
+                !name.startsWith("$");
+    }
+
     /*
      * Tests a string and returns true if the string counts as a 
      * reserved token in the Java language.
@@ -447,11 +454,14 @@ public class Cookie implements Cloneable, Serializable {
      * @return <code>true</code> if the <code>String</code> is a reserved
      * token; <code>false</code> otherwise
      */
-    private boolean isToken(String value) {
+    private static boolean isToken(String value) {
+        if (RFC2109_NAMES) {
+            return HttpCharClasses.isToken(value);
+        }
         int len = value.length();
         for (int i = 0; i < len; i++) {
             char c = value.charAt(i);
-            if (c < 0x20 || c >= 0x7f || TSPECIALS.indexOf(c) != -1) {
+            if (c < 0x20 || c >= 0x7f || c == ',' || c == ';' || c == ' ') {
                 return false;
             }
         }
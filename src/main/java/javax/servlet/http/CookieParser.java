@@ -0,0 +1,312 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import java.util.Arrays;
+import java.util.Enumeration;
+
+/**
+ * Parses the value of a <code>Cookie</code> request header.
+ *
+ * <p>The header is scanned once, recording where the name and value of
+ * each cookie start and end. Values can then be looked up by name with
+ * {@link #getCookieValue} without creating any <code>Cookie</code>;
+ * <code>Cookie</code> instances are only created by {@link #getCookies},
+ * for instance to implement {@link HttpServletRequest#getCookies}.
+ *
+ * <p>Cookies are separated by <code>;</code>, and whitespace around
+ * names and values is ignored. A cookie without <code>=</code> or
+ * without a name is ignored, and a value is kept as it is, including
+ * any double quotes around it. Names starting with <code>$</code> are
+ * attributes of RFC 2109 cookies: <code>$Version</code> sets the
+ * version of the cookies that follow it, and the others are ignored.
+ *
+ * <p>This class is not thread safe.
+ *
+ * @since Servlet 3.1
+ */
+public class CookieParser {
+
+    private final String header;
+
+    // for each cookie: name start, name end, value start, value end and
+    // version
+    private int[] bounds;
+    private int count;
+
+    private Cookie[] cookies;
+    private boolean cookiesCreated;
+
+    /**
+     * Parses the value of a <code>Cookie</code> header.
+     *
+     * @param header the value of the header
+     */
+    public CookieParser(String header) {
+        this.header = header;
+        bounds = new int[5 * 8];
+        parse();
+    }
+
+    /**
+     * Parses the values of several <code>Cookie</code> headers, as
+     * returned by <code>getHeaders("Cookie")</code>. The values are
+     * joined with <code>"; "</code>, as a single header would hold them.
+     *
+     * @param headers the values of the headers
+     */
+    public CookieParser(Enumeration<String> headers) {
+        this(join(headers));
+    }
+
+    private static String join(Enumeration<String> headers) {
+        if (!headers.hasMoreElements()) {
+            return "";
+        }
+        String first = headers.nextElement();
+        if (!headers.hasMoreElements()) {
+            return first;
+        }
+        StringBuilder sb = new StringBuilder(first);
+        do {
+            sb.append("; ").append(headers.nextElement());
+        } while (headers.hasMoreElements());
+        return sb.toString();
+    }
+
+    private void parse() {
+        String s = header;
+        int len = s.length();
+        int version = 0;
+        int start = 0;
+        while (start < len) {
+            // find the end of the cookie and its first '='
+            int eq = -1;
+            int end = start;
+            for (; end < len; end++) {
+                char c = s.charAt(end);
+                if (c == ';') {
+                    break;
+                }
+                if (c == '=' && eq < 0) {
+                    eq = end;
+                }
+            }
+            if (eq >= 0) {
+                int nameStart = skipSpace(s, start, eq);
+                int nameEnd = trimSpace(s, nameStart, eq);
+                int valueStart = skipSpace(s, eq + 1, end);
+                int valueEnd = trimSpace(s, valueStart, end);
+                if (nameEnd == nameStart) {
+                    // no name
+                } else if (s.charAt(nameStart) != '$') {
+                    add(nameStart, nameEnd, valueStart, valueEnd, version);
+                } else if (nameEnd - nameStart == 8
+                        && s.regionMatches(true, nameStart, "$Version", 0, 8)) {
+                    version = parseVersion(s, valueStart, valueEnd);
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    private void add(int nameStart, int nameEnd, int valueStart,
+            int valueEnd, int version) {
+        int i = count * 5;
+        if (i == bounds.length) {
+            bounds = Arrays.copyOf(bounds, i * 2);
+        }
+        bounds[i] = nameStart;
+        bounds[i + 1] = nameEnd;
+        bounds[i + 2] = valueStart;
+        bounds[i + 3] = valueEnd;
+        bounds[i + 4] = version;
+        count++;
+    }
+
+    /*
+     * Parses the value of $Version, which may be quoted; anything but 1
+     * means version 0.
+     */
+    private static int parseVersion(String s, int start, int end) {
+        if (end - start == 3 && s.charAt(start) == '"'
+                && s.charAt(end - 1) == '"') {
+            start++;
+            end--;
+        }
+        return (end - start == 1 && s.charAt(start) == '1') ? 1 : 0;
+    }
+
+    private static int skipSpace(String s, int start, int end) {
+        while (start < end && isSpace(s.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimSpace(String s, int start, int end) {
+        while (end > start && isSpace(s.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /**
+     * Gets the number of cookies in the header, including those whose
+     * names are not acceptable to <code>Cookie</code>.
+     *
+     * @return the number of cookies
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the name of a cookie by position.
+     *
+     * @param index the position of the cookie in the header
+     *
+     * @return the name of the cookie
+     *
+     * @exception IndexOutOfBoundsException if <code>index</code> is out
+     * of range
+     */
+    public String getName(int index) {
+        checkIndex(index);
+        return header.substring(bounds[index * 5], bounds[index * 5 + 1]);
+    }
+
+    /**
+     * Gets the value of a cookie by position.
+     *
+     * @param index the position of the cookie in the header
+     *
+     * @return the value of the cookie
+     *
+     * @exception IndexOutOfBoundsException if <code>index</code> is out
+     * of range
+     */
+    public String getValue(int index) {
+        checkIndex(index);
+        return header.substring(bounds[index * 5 + 2], bounds[index * 5 + 3]);
+    }
+
+    /**
+     * Gets the value of the first cookie with a given name. Names are
+     * case sensitive.
+     *
+     * @param name the name of the cookie
+     *
+     * @return the value of the cookie, or <code>null</code> if there is
+     * no cookie with that name
+     */
+    public String getCookieValue(String name) {
+        int i = indexOf(name);
+        return i < 0 ? null : getValue(i);
+    }
+
+    /**
+     * Returns whether the header holds a cookie with a given name.
+     *
+     * @param name the name of the cookie
+     *
+     * @return <code>true</code> if there is a cookie with that name
+     */
+    public boolean containsCookie(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    private int indexOf(String name) {
+        int len = name.length();
+        for (int i = 0; i < count; i++) {
+            int nameStart = bounds[i * 5];
+            if (bounds[i * 5 + 1] - nameStart == len
+                    && header.regionMatches(nameStart, name, 0, len)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the cookies of the header as <code>Cookie</code> objects.
+     * Cookies whose names are not acceptable to <code>Cookie</code> are
+     * skipped. The cookies are created on the first call, and the same
+     * array is returned by later calls.
+     *
+     * @return the cookies, or <code>null</code> if the header holds no
+     * acceptable cookie, as {@link HttpServletRequest#getCookies} returns
+     */
+    public Cookie[] getCookies() {
+        if (!cookiesCreated) {
+            Cookie[] result = new Cookie[count];
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                String name = getName(i);
+                if (Cookie.isValidName(name)) {
+                    Cookie cookie = new Cookie(name, getValue(i));
+                    if (bounds[i * 5 + 4] != 0) {
+                        cookie.setVersion(bounds[i * 5 + 4]);
+                    }
+                    result[n++] = cookie;
+                }
+            }
+            if (n == 0) {
+                result = null;
+            } else if (n < count) {
+                result = Arrays.copyOf(result, n);
+            }
+            cookies = result;
+            cookiesCreated = true;
+        }
+        return cookies;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import javax.servlet.SessionCookieConfig;
+
+/**
+ * A cookie whose attributes are serialized once, so that its
+ * <code>Set-Cookie</code> header can be written for any value by
+ * splicing the value between a precomputed prefix and suffix.
+ *
+ * <p>A template is meant for cookies written to many responses with the
+ * same attributes, the session cookie in particular:
+ * <pre>
+ *    CookieTemplate sessionCookie = new CookieTemplate(
+ *        context.getSessionCookieConfig(), context.getContextPath());
+ *    ...
+ *    resp.addHeader("Set-Cookie", sessionCookie.encode(sessionId));
+ * </pre>
+ *
+ * <p>The headers are those written by {@link SetCookieEncoder}. Only the
+ * <code>Expires</code> attribute, which depends on the current time, is
+ * computed for each header.
+ *
+ * <p>Templates are immutable and thread safe.
+ *
+ * @since Servlet 3.1
+ */
+public final class CookieTemplate {
+
+    /*
+     * The default name of the session cookie.
+     */
+    private static final String DEFAULT_SESSION_COOKIE_NAME = "JSESSIONID";
+
+    private final String name;
+    private final int maxAge;
+    // "name="
+    private final String prefix;
+    // the attributes after Expires
+    private final String suffix;
+
+    /**
+     * Constructs a template with the name and attributes of a cookie. Its
+     * value is ignored.
+     *
+     * @param cookie the cookie
+     *
+     * @throws IllegalArgumentException if the domain or path of the
+     * cookie contains a character that is not allowed by RFC 6265
+     */
+    public CookieTemplate(Cookie cookie) {
+        this(cookie.getName(), cookie.getMaxAge(), cookie.getDomain(),
+             cookie.getPath(), cookie.getSecure(), cookie.isHttpOnly());
+    }
+
+    /**
+     * Constructs a template for the session cookie of a web application.
+     * The configuration is read once, and later changes to it are not
+     * reflected in the template.
+     *
+     * @param config the session cookie configuration
+     * @param contextPath the context path of the web application, used
+     * as the path of the cookie when the configuration has none
+     *
+     * @throws IllegalArgumentException if the name of the cookie is not
+     * valid, or if its domain or path contains a character that is not
+     * allowed by RFC 6265
+     */
+    public CookieTemplate(SessionCookieConfig config, String contextPath) {
+        this(sessionCookieName(config), config.getMaxAge(),
+             config.getDomain(), sessionCookiePath(config, contextPath),
+             config.isSecure(), config.isHttpOnly());
+    }
+
+    private CookieTemplate(String name, int maxAge, String domain,
+            String path, boolean secure, boolean httpOnly) {
+        this.name = name;
+        this.maxAge = maxAge;
+        prefix = name + "=";
+        StringBuilder sb = new StringBuilder(64);
+        SetCookieEncoder.appendAttributes(sb, maxAge, domain, path, secure,
+                                          httpOnly);
+        suffix = sb.toString();
+    }
+
+    private static String sessionCookieName(SessionCookieConfig config) {
+        String name = config.getName();
+        if (name == null) {
+            return DEFAULT_SESSION_COOKIE_NAME;
+        }
+        // validates the name
+        new Cookie(name, null);
+        return name;
+    }
+
+    private static String sessionCookiePath(SessionCookieConfig config,
+            String contextPath) {
+        String path = config.getPath();
+        if (path != null) {
+            return path;
+        }
+        return (contextPath == null || contextPath.length() == 0
+                ? "/" : contextPath);
+    }
+
+    /**
+     * Gets the name of the cookie.
+     *
+     * @return the name of the cookie
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Serializes the cookie with a value.
+     *
+     * @param value the value of the cookie
+     *
+     * @return the value of the <code>Set-Cookie</code> header
+     *
+     * @throws IllegalArgumentException if the value contains a character
+     * that is not allowed by RFC 6265
+     */
+    public String encode(String value) {
+        int len = prefix.length() + suffix.length()
+            + (value == null ? 0 : value.length());
+        if (maxAge >= 0) {
+            len += 40;
+        }
+        return appendTo(new StringBuilder(len), value).toString();
+    }
+
+    /**
+     * Serializes the cookie with a value, appending it to a builder.
+     *
+     * @param sb the builder to append to
+     * @param value the value of the cookie
+     *
+     * @return <code>sb</code>
+     *
+     * @throws IllegalArgumentException if the value contains a character
+     * that is not allowed by RFC 6265
+     */
+    public StringBuilder appendTo(StringBuilder sb, String value) {
+        sb.append(prefix);
+        SetCookieEncoder.appendValue(sb, value);
+        if (maxAge >= 0) {
+            SetCookieEncoder.appendExpires(sb, maxAge,
+                                           System.currentTimeMillis());
+        }
+        return sb.append(suffix);
+    }
+}
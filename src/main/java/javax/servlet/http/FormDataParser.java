@@ -0,0 +1,378 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.text.MessageFormat;
+import java.util.ResourceBundle;
+
+/**
+ * Parses an <code>application/x-www-form-urlencoded</code> request body
+ * into a {@link ParameterMultiMap}.
+ *
+ * <p>The body is read through a fixed-size window and decoded as it is
+ * read: only the parameter being decoded is held in memory, in its
+ * decoded form, so the memory needed does not depend on the size of the
+ * body. The content length is only used to stop reading, never to size
+ * a buffer. Decoded names and values are converted to strings with the
+ * character encoding of the request.
+ *
+ * <p>The number of parameters and the size of each encoded parameter are
+ * limited; exceeding a limit fails the parse with an
+ * <code>IllegalStateException</code>. Malformed escapes are kept as
+ * they are, parameters without a name are ignored, and a parameter
+ * without <code>=</code> has an empty value.
+ *
+ * <p>A parser holds no state between calls to <code>parse</code>, and
+ * can be shared.
+ *
+ * @since Servlet 3.1
+ */
+public class FormDataParser {
+
+    private static final String LSTRING_FILE =
+        "javax.servlet.http.LocalStrings";
+    private static ResourceBundle lStrings =
+        ResourceBundle.getBundle(LSTRING_FILE);
+
+    /**
+     * The default maximum number of parameters.
+     */
+    public static final int DEFAULT_MAX_PARAMETER_COUNT = 10000;
+
+    /**
+     * The default maximum size of an encoded parameter, in bytes.
+     */
+    public static final int DEFAULT_MAX_PARAMETER_SIZE = 2 * 1024 * 1024;
+
+    static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final int WINDOW_SIZE = 8192;
+
+    private final Charset charset;
+    private final int maxParameterCount;
+    private final int maxParameterSize;
+    // the semantics of HttpUtils: malformed escapes and parameters
+    // without '=' are rejected, parameters without a name are kept
+    private final boolean strict;
+
+    /**
+     * Constructs a parser with the default limits for the character
+     * encoding of a request.
+     *
+     * @param encoding the character encoding, as returned by
+     * {@link javax.servlet.ServletRequest#getCharacterEncoding}, or
+     * <code>null</code> for ISO-8859-1
+     *
+     * @exception UnsupportedEncodingException if the encoding is not
+     * supported
+     */
+    public FormDataParser(String encoding)
+            throws UnsupportedEncodingException {
+        this(forName(encoding), DEFAULT_MAX_PARAMETER_COUNT,
+             DEFAULT_MAX_PARAMETER_SIZE, false);
+    }
+
+    /**
+     * Constructs a parser.
+     *
+     * @param charset the charset of the decoded names and values
+     * @param maxParameterCount the maximum number of parameters
+     * @param maxParameterSize the maximum size of an encoded parameter,
+     * name and value included, in bytes
+     *
+     * @throws IllegalArgumentException if a limit is not positive
+     */
+    public FormDataParser(Charset charset, int maxParameterCount,
+            int maxParameterSize) {
+        this(charset, maxParameterCount, maxParameterSize, false);
+    }
+
+    FormDataParser(Charset charset, int maxParameterCount,
+            int maxParameterSize, boolean strict) {
+        if (charset == null) {
+            throw new NullPointerException();
+        }
+        if (maxParameterCount <= 0 || maxParameterSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.charset = charset;
+        this.maxParameterCount = maxParameterCount;
+        this.maxParameterSize = maxParameterSize;
+        this.strict = strict;
+    }
+
+    static Charset forName(String encoding)
+            throws UnsupportedEncodingException {
+        if (encoding == null) {
+            return ISO_8859_1;
+        }
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalCharsetNameException e) {
+            throw new UnsupportedEncodingException(encoding);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+    }
+
+    /**
+     * Parses a request body.
+     *
+     * @param in the stream of the body
+     * @param length the length of the body, or -1 to read the stream
+     * until its end
+     *
+     * @return the parameters
+     *
+     * @exception IOException if reading fails, or if the stream ends
+     * before <code>length</code> bytes were read
+     *
+     * @exception IllegalStateException if a limit is exceeded
+     */
+    public ParameterMultiMap parse(InputStream in, long length)
+            throws IOException {
+        ParameterMultiMap params = new ParameterMultiMap();
+        parse(in, length, params);
+        return params;
+    }
+
+    /**
+     * Parses a request body, adding the parameters to a map.
+     *
+     * @param in the stream of the body
+     * @param length the length of the body, or -1 to read the stream
+     * until its end
+     * @param params the map to add the parameters to
+     *
+     * @exception IOException if reading fails, or if the stream ends
+     * before <code>length</code> bytes were read
+     *
+     * @exception IllegalStateException if a limit is exceeded
+     */
+    public void parse(InputStream in, long length, ParameterMultiMap params)
+            throws IOException {
+        FormDecoder decoder = new FormDecoder(params);
+        byte[] window = new byte[WINDOW_SIZE];
+        long remaining = length;
+        IllegalArgumentException malformed = null;
+        while (length < 0 || remaining > 0) {
+            int max = (length < 0 ? window.length
+                       : (int) Math.min(window.length, remaining));
+            int n = in.read(window, 0, max);
+            if (n <= 0) {
+                if (length >= 0) {
+                    throw new IOException(
+                        lStrings.getString("err.io.short_read"));
+                }
+                break;
+            }
+            remaining -= n;
+            if (malformed == null) {
+                try {
+                    decoder.decode(window, 0, n);
+                } catch (IllegalArgumentException e) {
+                    // HttpUtils reads the whole body before it reports
+                    // malformed data, so that a short read takes precedence
+                    malformed = e;
+                }
+            }
+        }
+        if (malformed != null) {
+            throw malformed;
+        }
+        decoder.endParameter();
+    }
+
+    /*
+     * Decodes a form parameter by parameter, keeping the state of a
+     * parameter across chunks.
+     */
+    private class FormDecoder {
+
+        private final ParameterMultiMap params;
+        private int count;
+
+        // the decoded bytes of the name, then of the value
+        private byte[] buf = new byte[64];
+        private int len;
+        // length of the name, or -1 until '=' is seen
+        private int nameLength = -1;
+        // number of encoded bytes of the parameter
+        private int encoded;
+        // bytes of a pending escape: '%', then a hex digit
+        private int escape;
+        private byte escapeDigit;
+        // in strict mode, the character after '%' is not a hex digit; as
+        // in HttpUtils, this is only an error if another character follows
+        // in the name or value
+        private boolean escapeInvalid;
+
+        FormDecoder(ParameterMultiMap params) {
+            this.params = params;
+        }
+
+        void decode(byte[] b, int off, int end) {
+            end += off;
+            for (int i = off; i < end; i++) {
+                byte c = b[i];
+                if (c == '&') {
+                    endParameter();
+                    continue;
+                }
+                if (++encoded > maxParameterSize) {
+                    throw new IllegalStateException(MessageFormat.format(
+                        lStrings.getString("err.form.parameter_too_large"),
+                        String.valueOf(maxParameterSize)));
+                }
+                if (escape != 0) {
+                    boolean endsName = (c == '=' && nameLength < 0);
+                    if (strict && escape == 1 && c == '+') {
+                        // HttpUtils decoded escapes with Integer.parseInt,
+                        // which accepts a plus sign
+                        escape = 2;
+                        escapeDigit = c;
+                        continue;
+                    }
+                    int d = PercentCodec.hexValue(c);
+                    if (d >= 0 && !escapeInvalid) {
+                        if (escape == 1) {
+                            escape = 2;
+                            escapeDigit = c;
+                        } else {
+                            escape = 0;
+                            int high = (escapeDigit == '+' ? 0
+                                : PercentCodec.hexValue(escapeDigit));
+                            put((byte) ((high << 4) | d));
+                        }
+                        continue;
+                    }
+                    if (strict && !endsName) {
+                        if (escape == 2) {
+                            throw new IllegalArgumentException();
+                        }
+                        escape = 2;
+                        escapeDigit = c;
+                        escapeInvalid = true;
+                        continue;
+                    }
+                    // a malformed escape is kept as it is
+                    flushEscape();
+                }
+                if (c == '%') {
+                    escape = 1;
+                } else if (c == '=' && nameLength < 0) {
+                    nameLength = len;
+                } else {
+                    put(c == '+' ? (byte) ' ' : c);
+                }
+            }
+        }
+
+        void endParameter() {
+            // an escape cut short by the end of the parameter is kept
+            flushEscape();
+            if (len == 0 && nameLength < 0) {
+                // an empty parameter, as in "a=1&&b=2"
+                reset();
+                return;
+            }
+            String name;
+            String value;
+            if (nameLength < 0) {
+                if (strict) {
+                    throw new IllegalArgumentException();
+                }
+                name = new String(buf, 0, len, charset);
+                value = "";
+            } else {
+                name = new String(buf, 0, nameLength, charset);
+                value = new String(buf, nameLength, len - nameLength, charset);
+            }
+            reset();
+            if (name.length() == 0 && !strict) {
+                return;
+            }
+            if (++count > maxParameterCount) {
+                throw new IllegalStateException(MessageFormat.format(
+                    lStrings.getString("err.form.too_many_parameters"),
+                    String.valueOf(maxParameterCount)));
+            }
+            params.add(name, value);
+        }
+
+        private void flushEscape() {
+            if (escape != 0) {
+                put((byte) '%');
+                if (escape == 2) {
+                    put(escapeDigit);
+                }
+                escape = 0;
+                escapeInvalid = false;
+            }
+        }
+
+        private void put(byte c) {
+            if (len == buf.length) {
+                byte[] b = new byte[len * 2];
+                System.arraycopy(buf, 0, b, 0, len);
+                buf = b;
+            }
+            buf[len++] = c;
+        }
+
+        private void reset() {
+            len = 0;
+            nameLength = -1;
+            encoded = 0;
+            escape = 0;
+            escapeInvalid = false;
+            if (buf.length > 1024) {
+                // do not keep the buffer of a large parameter
+                buf = new byte[64];
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+/**
+ * Classes of characters used by HTTP, for validating names and values
+ * of headers, cookies and URLs.
+ *
+ * <p>Each class is a 128-bit set of US-ASCII characters held in two
+ * <code>long</code>s, so testing a character is a shift and a mask, and
+ * characters outside US-ASCII are in no class. The classes are:
+ * <ul>
+ * <li>token characters, <code>tchar</code> in RFC 7230, which make up
+ * method names, header names and cookie names;
+ * <li>cookie octets, <code>cookie-octet</code> in RFC 6265;
+ * <li>header value characters: visible characters, space and horizontal
+ * tab;
+ * <li>path characters: <code>pchar</code> and <code>/</code> in RFC 3986,
+ * including <code>%</code> for escapes;
+ * <li>query characters: path characters and <code>?</code>.
+ * </ul>
+ *
+ * @since Servlet 3.1
+ */
+public final class HttpCharClasses {
+
+    // bit c of LO is set for a character c below 64, bit c - 64 of HI
+    // for a character from 64 to 127
+    static final long TOKEN_LO;
+    static final long TOKEN_HI;
+    static final long COOKIE_OCTET_LO;
+    static final long COOKIE_OCTET_HI;
+    static final long HEADER_VALUE_LO;
+    static final long HEADER_VALUE_HI;
+    static final long PATH_LO;
+    static final long PATH_HI;
+    static final long QUERY_LO;
+    static final long QUERY_HI;
+
+    static {
+        String alphaDigit = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "abcdefghijklmnopqrstuvwxyz0123456789";
+        String tchar = alphaDigit + "!#$%&'*+-.^_`|~";
+        TOKEN_LO = lo(tchar);
+        TOKEN_HI = hi(tchar);
+
+        // %x21 / %x23-2B / %x2D-3A / %x3C-5B / %x5D-7E
+        long visibleLo = range(0x21, 0x3f);
+        long visibleHi = range(0, 0x3e);
+        COOKIE_OCTET_LO = visibleLo & ~lo("\",;");
+        COOKIE_OCTET_HI = visibleHi & ~hi("\\");
+
+        HEADER_VALUE_LO = visibleLo | lo(" \t");
+        HEADER_VALUE_HI = visibleHi;
+
+        // unreserved, pct-encoded, sub-delims, ':', '@' and '/'
+        String path = alphaDigit + "-._~%!$&'()*+,;=:@/";
+        PATH_LO = lo(path);
+        PATH_HI = hi(path);
+        QUERY_LO = PATH_LO | lo("?");
+        QUERY_HI = PATH_HI;
+    }
+
+    private HttpCharClasses() {
+    }
+
+    /*
+     * Returns the low half of the set of the given characters.
+     */
+    static long lo(String chars) {
+        long mask = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (c < 64) {
+                mask |= 1L << c;
+            }
+        }
+        return mask;
+    }
+
+    /*
+     * Returns the high half of the set of the given characters.
+     */
+    static long hi(String chars) {
+        long mask = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (c >= 64 && c < 128) {
+                mask |= 1L << (c - 64);
+            }
+        }
+        return mask;
+    }
+
+    /*
+     * Returns the bits from first to last, inclusive, of one half.
+     */
+    private static long range(int first, int last) {
+        long mask = 0;
+        for (int i = first; i <= last; i++) {
+            mask |= 1L << i;
+        }
+        return mask;
+    }
+
+    /*
+     * Tests whether a character is in the set of the given halves.
+     */
+    static boolean matches(int c, long lo, long hi) {
+        if (c < 64) {
+            return c >= 0 && (lo & (1L << c)) != 0;
+        }
+        return c < 128 && (hi & (1L << (c - 64))) != 0;
+    }
+
+    /*
+     * Tests whether all the characters of a string are in a set.
+     */
+    private static boolean matches(CharSequence s, int start, int end,
+            long lo, long hi) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 64) {
+                if ((lo & (1L << c)) == 0) {
+                    return false;
+                }
+            } else if (c >= 128 || (hi & (1L << (c - 64))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests whether a character is a token character.
+     *
+     * @param c the character
+     *
+     * @return <code>true</code> if the character is a <code>tchar</code>
+     */
+    public static boolean isTokenChar(int c) {
+        return matches(c, TOKEN_LO, TOKEN_HI);
+    }
+
+    /**
+     * Tests whether a character is a cookie octet.
+     *
+     * @param c the character
+     *
+     * @return <code>true</code> if the character is a
+     * <code>cookie-octet</code>
+     */
+    public static boolean isCookieOctet(int c) {
+        return matches(c, COOKIE_OCTET_LO, COOKIE_OCTET_HI);
+    }
+
+    /**
+     * Tests whether a character may appear in a header value.
+     *
+     * @param c the character
+     *
+     * @return <code>true</code> if the character is visible, a space or
+     * a horizontal tab
+     */
+    public static boolean isHeaderValueChar(int c) {
+        return matches(c, HEADER_VALUE_LO, HEADER_VALUE_HI);
+    }
+
+    /**
+     * Tests whether a character may appear in the path of a URL.
+     *
+     * @param c the character
+     *
+     * @return <code>true</code> if the character is a <code>pchar</code>,
+     * <code>%</code> or <code>/</code>
+     */
+    public static boolean isPathChar(int c) {
+        return matches(c, PATH_LO, PATH_HI);
+    }
+
+    /**
+     * Tests whether a character may appear in the query of a URL.
+     *
+     * @param c the character
+     *
+     * @return <code>true</code> if the character is a path character or
+     * <code>?</code>
+     */
+    public static boolean isQueryChar(int c) {
+        return matches(c, QUERY_LO, QUERY_HI);
+    }
+
+    /**
+     * Tests whether a string is a token, such as a method name, a header
+     * name or a cookie name.
+     *
+     * @param s the string
+     *
+     * @return <code>true</code> if the string is not empty and is made
+     * of token characters only
+     */
+    public static boolean isToken(CharSequence s) {
+        return s.length() > 0 && matches(s, 0, s.length(), TOKEN_LO, TOKEN_HI);
+    }
+
+    /**
+     * Tests whether a string is a valid cookie value: cookie octets,
+     * optionally between double quotes.
+     *
+     * @param s the string
+     *
+     * @return <code>true</code> if the string is a
+     * <code>cookie-value</code>
+     */
+    public static boolean isCookieValue(CharSequence s) {
+        int start = 0;
+        int end = s.length();
+        if (end >= 2 && s.charAt(0) == '"' && s.charAt(end - 1) == '"') {
+            start++;
+            end--;
+        }
+        return matches(s, start, end, COOKIE_OCTET_LO, COOKIE_OCTET_HI);
+    }
+
+    /**
+     * Tests whether a string is a valid header value.
+     *
+     * @param s the string
+     *
+     * @return <code>true</code> if the string is made of header value
+     * characters only
+     */
+    public static boolean isHeaderValue(CharSequence s) {
+        return matches(s, 0, s.length(), HEADER_VALUE_LO, HEADER_VALUE_HI);
+    }
+
+    /**
+     * Tests whether a string is a valid URL path.
+     *
+     * @param s the string
+     *
+     * @return <code>true</code> if the string is made of path characters
+     * only
+     */
+    public static boolean isPath(CharSequence s) {
+        return matches(s, 0, s.length(), PATH_LO, PATH_HI);
+    }
+
+    /**
+     * Tests whether a string is a valid URL query.
+     *
+     * @param s the string, without the leading <code>?</code>
+     *
+     * @return <code>true</code> if the string is made of query characters
+     * only
+     */
+    public static boolean isQuery(CharSequence s) {
+        return matches(s, 0, s.length(), QUERY_LO, QUERY_HI);
+    }
+}
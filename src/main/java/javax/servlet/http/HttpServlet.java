@@ -60,12 +60,24 @@ package javax.servlet.http;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
 
 import javax.servlet.*;
@@ -139,12 +151,37 @@ public abstract class HttpServlet extends GenericServlet
     private static final String METHOD_TRACE = "TRACE";
 
     private static final String HEADER_IFMODSINCE = "If-Modified-Since";
+    private static final String HEADER_IFUNMODSINCE = "If-Unmodified-Since";
+    private static final String HEADER_IFMATCH = "If-Match";
+    private static final String HEADER_IFNONEMATCH = "If-None-Match";
+    private static final String HEADER_IFRANGE = "If-Range";
+    private static final String HEADER_RANGE = "Range";
     private static final String HEADER_LASTMOD = "Last-Modified";
+    private static final String HEADER_ETAG = "ETag";
     
     private static final String LSTRING_FILE =
         "javax.servlet.http.LocalStrings";
     private static ResourceBundle lStrings =
         ResourceBundle.getBundle(LSTRING_FILE);
+
+    /*
+     * The overridden doXXX methods of each servlet class never change,
+     * so they are looked up by reflection only once per class.
+     */
+    private static final ClassValue<MethodTable> METHOD_TABLES =
+        new ClassValue<MethodTable>() {
+            @Override
+            protected MethodTable computeValue(Class<?> type) {
+                return new MethodTable(type);
+            }
+        };
+
+    /*
+     * Handlers registered through registerMethod, or null if there are
+     * none. Replaced as a whole on registration so that service() can
+     * read it without locking.
+     */
+    private transient volatile Map<String, HttpMethodHandler> extensionHandlers;
    
     
     /**
@@ -293,6 +330,99 @@ public abstract class HttpServlet extends GenericServlet
     }
 
 
+    /**
+     *
+     * Returns the entity-tag of the current representation of the
+     * resource identified by the <code>HttpServletRequest</code>
+     * object, or <code>null</code> if there is none (the default).
+     * 返回 HttpServletRequest 对象所标识资源的当前表示的实体标签；
+     * 如果没有，则返回 null（默认值）。
+     *
+     * <p>The value is returned as it appears in the <code>ETag</code>
+     * response header, including the double quotes and, for a weak
+     * entity-tag, the <code>W/</code> prefix, for example
+     * <code>"xyzzy"</code> or <code>W/"xyzzy"</code>.
+     * 返回值与其在 ETag 响应标头中出现的形式相同，包括双引号，
+     * 弱实体标签还包括 W/ 前缀，例如 "xyzzy" 或 W/"xyzzy"。
+     *
+     * <p>Servlets that can quickly compute an entity-tag should
+     * override this method. Together with {@link #getLastModified},
+     * it lets the <code>service</code> method evaluate the
+     * <code>If-Match</code>, <code>If-Unmodified-Since</code>,
+     * <code>If-None-Match</code>, <code>If-Modified-Since</code> and
+     * <code>If-Range</code> request headers, in the order defined by
+     * RFC 7232, for GET, HEAD, PUT and DELETE requests, and answer with
+     * a 304 (Not Modified) or 412 (Precondition Failed) status without
+     * invoking the <code>do</code><i>XXX</i> method.
+     * 能够快速计算实体标签的 servlet 应该重写此方法。service() 方法会结合
+     * getLastModified() 按 RFC 7232 定义的顺序，为 GET、HEAD、PUT 和 DELETE
+     * 请求评估条件请求标头，并在不调用 doXXX 方法的情况下以 304 (Not Modified)
+     * 或 412 (Precondition Failed) 状态响应。
+     *
+     * @param req   the <code>HttpServletRequest</code>
+     *                  object that is sent to the servlet
+     *					发送给servlet的HttpServletRequest对象
+     *
+     * @return  the entity-tag of the requested resource, or
+     *                  <code>null</code> if it is not known
+     * 所请求资源的实体标签，如果未知则为 null
+     *
+     * @see #getLastModified
+     *
+     * @since Servlet 3.1
+     */
+
+    protected String getETag(HttpServletRequest req) {
+        return null;
+    }
+
+
+    /**
+     *
+     * Returns the headers that a GET request for the resource identified
+     * by the <code>HttpServletRequest</code> object would produce, or
+     * <code>null</code> if they cannot be determined without generating
+     * the response body (the default).
+     * 返回对 HttpServletRequest 对象所标识资源的 GET 请求将产生的标头；
+     * 如果不生成响应正文就无法确定它们，则返回 null（默认值）。
+     *
+     * <p>When this method returns a value, the default
+     * <code>doHead</code> implementation answers HEAD requests from it
+     * alone: it sets the <code>Content-Type</code>,
+     * <code>Content-Length</code>, <code>ETag</code> and
+     * <code>Last-Modified</code> headers that are known and does not
+     * call <code>doGet</code>. Servlets that generate large bodies
+     * and can cheaply determine their length should override this
+     * method.
+     * 当此方法返回值时，默认的 doHead 实现仅根据该值响应 HEAD 请求：
+     * 它设置已知的 Content-Type、Content-Length、ETag 和 Last-Modified 标头，
+     * 且不调用 doGet。生成大型正文并且能以低成本确定其长度的 servlet
+     * 应该重写此方法。
+     *
+     * <p>The entity-tag and last modification time of the metadata are
+     * also used to evaluate conditional requests when
+     * {@link #getETag} and {@link #getLastModified} do not provide them.
+     * 当 getETag() 和 getLastModified() 未提供实体标签和最后修改时间时，
+     * 元数据中的这两个值也用于评估条件请求。
+     *
+     * @param req   the <code>HttpServletRequest</code>
+     *                  object that is sent to the servlet
+     *					发送给servlet的HttpServletRequest对象
+     *
+     * @return  the metadata of the response to a GET request, or
+     *                  <code>null</code> if it is not known
+     * GET 请求响应的元数据，如果未知则为 null
+     *
+     * @see #doHead
+     *
+     * @since Servlet 3.1
+     */
+
+    protected ContentMetadata getContentMetadata(HttpServletRequest req) {
+        return null;
+    }
+
+
     /**
      * 
      *
@@ -318,6 +448,13 @@ public abstract class HttpServlet extends GenericServlet
      * 如果您重写此方法，则可以避免计算响应体，而只需直接设置响应头以提高性能。
      * 确保您编写的doHead方法既安全又幂等(也就是说，保护自己不因一个HTTP HEAD请求而被多次调用)。
      *
+     * <p>Alternatively, override {@link #getContentMetadata} to
+     * describe the response. This method then sets the response
+     * headers from the returned {@link ContentMetadata} and does not
+     * call <code>doGet</code> at all.
+     * 或者，重写 getContentMetadata() 方法来描述响应。此方法随后会根据返回的
+     * ContentMetadata 设置响应头，而完全不调用 doGet。
+     *
      * <p>If the HTTP HEAD request is incorrectly formatted,
      * <code>doHead</code> returns an HTTP "Bad Request"
      * message.
@@ -340,6 +477,49 @@ public abstract class HttpServlet extends GenericServlet
     protected void doHead(HttpServletRequest req, HttpServletResponse resp)
         throws ServletException, IOException
     {
+        doHead(req, resp, getContentMetadata(req));
+    }
+
+
+    /*
+     * Dispatches a HEAD request, reusing the metadata computed by
+     * service() when doHead is not overridden.
+     * 分派 HEAD 请求；如果 doHead 未被重写，则复用 service() 计算出的元数据。
+     */
+    private void head(HttpServletRequest req, HttpServletResponse resp,
+                      MethodTable table, ContentMetadata metadata)
+        throws ServletException, IOException
+    {
+        if (table.overridesHead()) {
+            doHead(req, resp);
+        } else {
+            doHead(req, resp, metadata);
+        }
+    }
+
+
+    /*
+     * The default HEAD handling: answers from the metadata if there is
+     * any, and otherwise runs doGet without a body.
+     * 默认的 HEAD 处理：如果有元数据则据此响应，否则运行不输出正文的 doGet。
+     */
+    private void doHead(HttpServletRequest req, HttpServletResponse resp,
+                        ContentMetadata metadata)
+        throws ServletException, IOException
+    {
+        if (metadata != null) {
+            // the headers are known up front, no need to run doGet
+            if (metadata.getContentType() != null) {
+                resp.setContentType(metadata.getContentType());
+            }
+            if (metadata.getContentLength() >= 0) {
+                resp.setContentLengthLong(metadata.getContentLength());
+            }
+            maybeSetETag(resp, metadata.getETag());
+            maybeSetLastModified(resp, metadata.getLastModified());
+            return;
+        }
+
         NoBodyResponse response = new NoBodyResponse(resp);
         
         doGet(req, response);
@@ -561,32 +741,6 @@ public abstract class HttpServlet extends GenericServlet
     }
     
 
-    private Method[] getAllDeclaredMethods(Class<? extends HttpServlet> c) {
-
-        Class<?> clazz = c;
-        Method[] allMethods = null;
-
-        while (!clazz.equals(HttpServlet.class)) {
-            Method[] thisMethods = clazz.getDeclaredMethods();
-            if (allMethods != null && allMethods.length > 0) {
-                Method[] subClassMethods = allMethods;
-                allMethods =
-                    new Method[thisMethods.length + subClassMethods.length];
-                System.arraycopy(thisMethods, 0, allMethods, 0,
-                                 thisMethods.length);
-                System.arraycopy(subClassMethods, 0, allMethods, thisMethods.length,
-                                 subClassMethods.length);
-            } else {
-                allMethods = thisMethods;
-            }
-
-            clazz = clazz.getSuperclass();
-        }
-
-        return ((allMethods != null) ? allMethods : new Method[0]);
-    }
-
-
     /**
      * Called by the server (via the <code>service</code> method)
      * to allow a servlet to handle a OPTIONS request.
@@ -631,76 +785,7 @@ public abstract class HttpServlet extends GenericServlet
     protected void doOptions(HttpServletRequest req, HttpServletResponse resp)
         throws ServletException, IOException
     {
-        Method[] methods = getAllDeclaredMethods(this.getClass());
-        
-        boolean ALLOW_GET = false;
-        boolean ALLOW_HEAD = false;
-        boolean ALLOW_POST = false;
-        boolean ALLOW_PUT = false;
-        boolean ALLOW_DELETE = false;
-        boolean ALLOW_TRACE = true;
-        boolean ALLOW_OPTIONS = true;
-        
-        for (int i=0; i<methods.length; i++) {
-            String methodName = methods[i].getName();
-            
-            if (methodName.equals("doGet")) {
-                ALLOW_GET = true;
-                ALLOW_HEAD = true;
-            } else if (methodName.equals("doPost")) {
-                ALLOW_POST = true;
-            } else if (methodName.equals("doPut")) {
-                ALLOW_PUT = true;
-            } else if (methodName.equals("doDelete")) {
-                ALLOW_DELETE = true;
-            }
-            
-        }
-        
-        // we know "allow" is not null as ALLOW_OPTIONS = true
-        // when this method is invoked
-        StringBuilder allow = new StringBuilder();
-        if (ALLOW_GET) {
-            allow.append(METHOD_GET);
-        }
-        if (ALLOW_HEAD) {
-            if (allow.length() > 0) {
-                allow.append(", ");
-            }
-            allow.append(METHOD_HEAD);
-        }
-        if (ALLOW_POST) {
-            if (allow.length() > 0) {
-                allow.append(", ");
-            }
-            allow.append(METHOD_POST);
-        }
-        if (ALLOW_PUT) {
-            if (allow.length() > 0) {
-                allow.append(", ");
-            }
-            allow.append(METHOD_PUT);
-        }
-        if (ALLOW_DELETE) {
-            if (allow.length() > 0) {
-                allow.append(", ");
-            }
-            allow.append(METHOD_DELETE);
-        }
-        if (ALLOW_TRACE) {
-            if (allow.length() > 0) {
-                allow.append(", ");
-            }
-            allow.append(METHOD_TRACE);
-        }
-        if (ALLOW_OPTIONS) {
-            if (allow.length() > 0) {
-                allow.append(", ");
-            }
-            allow.append(METHOD_OPTIONS);
-        }
-        
-        resp.setHeader("Allow", allow.toString());
+        resp.setHeader("Allow", getAllow(getMethodTable()));
     }
     
     
@@ -799,47 +884,122 @@ public abstract class HttpServlet extends GenericServlet
         throws ServletException, IOException
     {
         String method = req.getMethod();
-
-        if (method.equals(METHOD_GET)) {
+        MethodTable table = getMethodTable();
+
+        // A String switch dispatches on the precomputed hash of the
+        // method token, so GET and POST cost a single lookup
+        switch (method) {
+        case METHOD_GET: {
+            if (!table.allowsGet()) {
+                // doGet is not overridden, answer without entering it
+                sendMethodNotAllowed(req, resp, table,
+                                     "http.method_get_not_supported");
+                return;
+            }
             long lastModified = getLastModified(req);
-            if (lastModified == -1) {
-                // servlet doesn't support if-modified-since, no reason
+            String eTag = getETag(req);
+            if (lastModified == -1 || eTag == null) {
+                ContentMetadata metadata = getContentMetadata(req);
+                if (metadata != null) {
+                    if (lastModified == -1) {
+                        lastModified = metadata.getLastModified();
+                    }
+                    if (eTag == null) {
+                        eTag = metadata.getETag();
+                    }
+                }
+            }
+            if (lastModified == -1 && eTag == null) {
+                // servlet doesn't support conditional requests, no reason
                 // to go through further expensive logic
                 doGet(req, resp);
-            } else {
-                long ifModifiedSince = req.getDateHeader(HEADER_IFMODSINCE);
-                if (ifModifiedSince < lastModified) {
-                    // If the servlet mod time is later, call doGet()
-                    // Round down to the nearest second for a proper compare
-                    // A ifModifiedSince of -1 will always be less
-                    maybeSetLastModified(resp, lastModified);
-                    doGet(req, resp);
-                } else {
-                    resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-                }
+            } else if (checkPreconditions(req, resp, eTag, lastModified,
+                                          true)) {
+                maybeSetLastModified(resp, lastModified);
+                maybeSetETag(resp, eTag);
+                doGet(checkIfRange(req, eTag, lastModified), resp);
             }
+            break;
+        }
 
-        } else if (method.equals(METHOD_HEAD)) {
+        case METHOD_HEAD: {
+            if (!table.allowsHead()) {
+                sendMethodNotAllowed(req, resp, table,
+                                     "http.method_get_not_supported");
+                return;
+            }
+            // the metadata also answers the request, unless doHead is
+            // overridden
+            ContentMetadata metadata = getContentMetadata(req);
             long lastModified = getLastModified(req);
-            maybeSetLastModified(resp, lastModified);
-            doHead(req, resp);
+            String eTag = getETag(req);
+            if (metadata != null) {
+                if (lastModified == -1) {
+                    lastModified = metadata.getLastModified();
+                }
+                if (eTag == null) {
+                    eTag = metadata.getETag();
+                }
+            }
+            if (lastModified == -1 && eTag == null) {
+                head(req, resp, table, metadata);
+            } else if (checkPreconditions(req, resp, eTag, lastModified,
+                                          true)) {
+                maybeSetLastModified(resp, lastModified);
+                maybeSetETag(resp, eTag);
+                head(req, resp, table, metadata);
+            }
+            break;
+        }
 
-        } else if (method.equals(METHOD_POST)) {
+        case METHOD_POST:
+            if (!table.allowsPost()) {
+                sendMethodNotAllowed(req, resp, table,
+                                     "http.method_post_not_supported");
+                return;
+            }
             doPost(req, resp);
-            
-        } else if (method.equals(METHOD_PUT)) {
-            doPut(req, resp);
-            
-        } else if (method.equals(METHOD_DELETE)) {
-            doDelete(req, resp);
-            
-        } else if (method.equals(METHOD_OPTIONS)) {
+            break;
+
+        case METHOD_PUT:
+            if (!table.allowsPut()) {
+                sendMethodNotAllowed(req, resp, table,
+                                     "http.method_put_not_supported");
+                return;
+            }
+            if (checkPreconditions(req, resp, false)) {
+                doPut(req, resp);
+            }
+            break;
+
+        case METHOD_DELETE:
+            if (!table.allowsDelete()) {
+                sendMethodNotAllowed(req, resp, table,
+                                     "http.method_delete_not_supported");
+                return;
+            }
+            if (checkPreconditions(req, resp, false)) {
+                doDelete(req, resp);
+            }
+            break;
+
+        case METHOD_OPTIONS:
             doOptions(req,resp);
-            
-        } else if (method.equals(METHOD_TRACE)) {
+            break;
+
+        case METHOD_TRACE:
             doTrace(req,resp);
-            
-        } else {
+            break;
+
+        default:
+            Map<String, HttpMethodHandler> handlers = extensionHandlers;
+            HttpMethodHandler handler =
+                (handlers != null) ? handlers.get(method) : null;
+            if (handler != null) {
+                handler.service(req, resp);
+                return;
+            }
+
             //
             // Note that this means NO servlet supports whatever
             // method was requested, anywhere on this server.
@@ -855,6 +1015,339 @@ public abstract class HttpServlet extends GenericServlet
     }
     
 
+    /**
+     * Registers a handler for an HTTP method that is not one of the
+     * methods defined by HTTP/1.1, such as <code>PATCH</code> or a
+     * WebDAV method. Requests for the method are then dispatched to the
+     * handler by the <code>service</code> method instead of being
+     * rejected with an HTTP 501 (Not Implemented) error, and the method
+     * is listed in the <code>Allow</code> header returned for OPTIONS
+     * requests.
+     * 为 HTTP/1.1 未定义的 HTTP 方法（例如 PATCH 或 WebDAV 方法）注册处理器。
+     * 此后 service() 方法会将该方法的请求分发给此处理器，而不是以
+     * HTTP 501 (Not Implemented) 错误拒绝，并且该方法会列在 OPTIONS
+     * 请求返回的 Allow 标头中。
+     *
+     * <p>Handlers are normally registered from <code>init</code>,
+     * before the servlet receives any request. The methods handled by
+     * the <code>do</code><i>XXX</i> methods of this class cannot be
+     * registered.
+     * 处理器通常在 init() 中、servlet 接收任何请求之前注册。
+     * 由本类的 doXXX 方法处理的方法不能被注册。
+     *
+     * @param method    the name of the HTTP method, for example
+     *                  <code>PATCH</code>; method names are case-sensitive
+     * HTTP 方法的名称，例如 PATCH；方法名区分大小写
+     *
+     * @param handler   the handler that will process requests
+     *                  for the method
+     * 处理该方法请求的处理器
+     *
+     * @exception IllegalArgumentException  if <code>method</code> is
+     *                  empty, is not a token, is already handled by this
+     *                  servlet, or if either argument is <code>null</code>
+     * 如果 method 为空、不是 token、已由此 servlet 处理，或任一参数为 null
+     *
+     * @since Servlet 3.1
+     */
+    protected synchronized void registerMethod(String method,
+                                               HttpMethodHandler handler) {
+        if (method == null || handler == null
+                || !HttpCharClasses.isToken(method)) {
+            throw new IllegalArgumentException();
+        }
+        Map<String, HttpMethodHandler> handlers = extensionHandlers;
+        if (isStandardMethod(method)
+                || (handlers != null && handlers.containsKey(method))) {
+            String errMsg = lStrings.getString("http.method_registered");
+            Object[] errArgs = new Object[1];
+            errArgs[0] = method;
+            errMsg = MessageFormat.format(errMsg, errArgs);
+            throw new IllegalArgumentException(errMsg);
+        }
+        // copy on write, service() reads the map without locking
+        if (handlers == null) {
+            handlers = new LinkedHashMap<String, HttpMethodHandler>();
+        } else {
+            handlers = new LinkedHashMap<String, HttpMethodHandler>(handlers);
+        }
+        handlers.put(method, handler);
+        extensionHandlers = handlers;
+    }
+
+
+    private static boolean isStandardMethod(String method) {
+        switch (method) {
+        case METHOD_GET:
+        case METHOD_HEAD:
+        case METHOD_POST:
+        case METHOD_PUT:
+        case METHOD_DELETE:
+        case METHOD_OPTIONS:
+        case METHOD_TRACE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+
+    /*
+     * Returns the value of the Allow header, including the methods
+     * registered through registerMethod.
+     */
+    private String getAllow(MethodTable table) {
+        Map<String, HttpMethodHandler> handlers = extensionHandlers;
+        if (handlers == null) {
+            return table.getAllow();
+        }
+        StringBuilder allow = new StringBuilder(table.getAllow());
+        for (String method : handlers.keySet()) {
+            allow.append(", ").append(method);
+        }
+        return allow.toString();
+    }
+
+
+    /*
+     * Returns the method capability table of this servlet's class,
+     * computed once per class.
+     * 返回此 servlet 类的方法能力表，每个类只计算一次。
+     */
+    private MethodTable getMethodTable() {
+        return METHOD_TABLES.get(getClass());
+    }
+
+
+    /*
+     * Rejects a request for a method whose doXXX handler is not
+     * overridden, sending the same response as the default doXXX
+     * implementation would, plus the Allow header for HTTP/1.1.
+     * 拒绝未重写 doXXX 处理方法的请求，发送与默认 doXXX 实现相同的响应，
+     * 对于 HTTP/1.1 还会附带 Allow 标头。
+     */
+    private void sendMethodNotAllowed(HttpServletRequest req,
+                                      HttpServletResponse resp,
+                                      MethodTable table, String msgKey)
+        throws IOException
+    {
+        String protocol = req.getProtocol();
+        String msg = lStrings.getString(msgKey);
+        if (protocol.endsWith("1.1")) {
+            resp.setHeader("Allow", getAllow(table));
+            resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, msg);
+        } else {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, msg);
+        }
+    }
+
+
+    /*
+     * Evaluates the preconditions of a PUT or DELETE request against the
+     * validators of the target resource, if the servlet provides any,
+     * either directly or through its content metadata.
+     * 如果 servlet 直接或通过其内容元数据提供了验证器，则针对目标资源的
+     * 验证器评估 PUT 或 DELETE 请求的前提条件。
+     */
+    private boolean checkPreconditions(HttpServletRequest req,
+                                       HttpServletResponse resp,
+                                       boolean safe) {
+        long lastModified = getLastModified(req);
+        String eTag = getETag(req);
+        if (lastModified == -1 || eTag == null) {
+            ContentMetadata metadata = getContentMetadata(req);
+            if (metadata != null) {
+                if (lastModified == -1) {
+                    lastModified = metadata.getLastModified();
+                }
+                if (eTag == null) {
+                    eTag = metadata.getETag();
+                }
+            }
+        }
+        if (lastModified == -1 && eTag == null) {
+            return true;
+        }
+        return checkPreconditions(req, resp, eTag, lastModified, safe);
+    }
+
+
+    /*
+     * Evaluates the conditional request headers in the order defined by
+     * RFC 7232, section 6. Returns true if the request handler should be
+     * invoked, or false if a 304 (Not Modified) or 412 (Precondition
+     * Failed) status has been set on the response instead. If-Modified-Since
+     * and a matching If-None-Match only produce a 304 for safe methods.
+     * 按 RFC 7232 第 6 节定义的顺序评估条件请求标头。如果应调用请求处理方法
+     * 则返回 true；如果已在响应上设置 304 (Not Modified) 或 412
+     * (Precondition Failed) 状态则返回 false。
+     */
+    private boolean checkPreconditions(HttpServletRequest req,
+                                       HttpServletResponse resp,
+                                       String eTag, long lastModified,
+                                       boolean safe) {
+        // Dates in HTTP headers have a resolution of one second
+        long lastModifiedSecs = (lastModified >= 0)
+            ? lastModified - lastModified % 1000 : -1;
+
+        String ifMatch = req.getHeader(HEADER_IFMATCH);
+        if (ifMatch != null) {
+            if (!matchesETag(ifMatch, eTag, true)) {
+                resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+                return false;
+            }
+        } else if (lastModifiedSecs >= 0) {
+            long ifUnmodifiedSince = getDateHeader(req, HEADER_IFUNMODSINCE);
+            if (ifUnmodifiedSince >= 0
+                    && lastModifiedSecs > ifUnmodifiedSince) {
+                resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+                return false;
+            }
+        }
+
+        String ifNoneMatch = req.getHeader(HEADER_IFNONEMATCH);
+        if (ifNoneMatch != null) {
+            if (matchesETag(ifNoneMatch, eTag, false)) {
+                if (safe) {
+                    sendNotModified(resp, eTag, lastModified);
+                } else {
+                    resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+                }
+                return false;
+            }
+        } else if (safe && lastModifiedSecs >= 0) {
+            long ifModifiedSince = getDateHeader(req, HEADER_IFMODSINCE);
+            if (ifModifiedSince >= 0 && lastModifiedSecs <= ifModifiedSince) {
+                sendNotModified(resp, eTag, lastModified);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /*
+     * Returns the request to pass to doGet. If the request carries an
+     * If-Range header that does not match the current representation,
+     * its Range header must be ignored and the full representation sent,
+     * so the Range header is hidden from the servlet.
+     * 返回传递给 doGet 的请求。如果请求带有与当前表示不匹配的 If-Range 标头，
+     * 则必须忽略其 Range 标头并发送完整表示，因此对 servlet 隐藏 Range 标头。
+     */
+    private HttpServletRequest checkIfRange(HttpServletRequest req,
+                                            String eTag, long lastModified) {
+        String ifRange = req.getHeader(HEADER_IFRANGE);
+        if (ifRange == null || req.getHeader(HEADER_RANGE) == null) {
+            return req;
+        }
+        boolean matches;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range always uses the strong comparison function
+            matches = matchesETag(ifRange, eTag, true);
+        } else {
+            long date = getDateHeader(req, HEADER_IFRANGE);
+            matches = lastModified >= 0 && date >= 0
+                && lastModified - lastModified % 1000 == date;
+        }
+        return matches ? req : new NoRangeRequest(req);
+    }
+
+
+    /*
+     * Tests whether the entity-tag list of an If-Match, If-None-Match or
+     * If-Range header contains the given entity-tag, using the strong or
+     * the weak comparison function of RFC 7232, section 2.3.2. The list
+     * is scanned in place, without splitting it.
+     * 判断 If-Match、If-None-Match 或 If-Range 标头的实体标签列表是否包含
+     * 给定的实体标签，使用 RFC 7232 第 2.3.2 节的强比较或弱比较函数。
+     */
+    private static boolean matchesETag(String header, String eTag,
+                                       boolean strong) {
+        if (header.trim().equals("*")) {
+            // only called for resources that have a current representation
+            return true;
+        }
+        if (eTag == null) {
+            return false;
+        }
+        boolean weak = eTag.startsWith("W/");
+        if (strong && weak) {
+            return false;
+        }
+        int tagStart = weak ? 2 : 0;
+        int tagLength = eTag.length() - tagStart;
+
+        int len = header.length();
+        int i = 0;
+        while (i < len) {
+            char c = header.charAt(i);
+            if (c == ' ' || c == '\t' || c == ',') {
+                i++;
+                continue;
+            }
+            boolean candidateWeak = false;
+            if (c == 'W' && header.startsWith("W/", i)) {
+                candidateWeak = true;
+                i += 2;
+            }
+            int start = i;
+            int end;
+            if (i < len && header.charAt(i) == '"') {
+                end = header.indexOf('"', i + 1);
+                end = (end == -1) ? len : end + 1;
+            } else {
+                // malformed entity-tag, skip to the next list element
+                end = header.indexOf(',', i);
+                end = (end == -1) ? len : end;
+            }
+            if (!(strong && candidateWeak)
+                    && end - start == tagLength
+                    && header.regionMatches(start, eTag, tagStart, tagLength)) {
+                return true;
+            }
+            i = end;
+        }
+        return false;
+    }
+
+
+    /*
+     * Returns the value of a date header, or -1 if it is missing or
+     * cannot be parsed, in which case it must be ignored.
+     * 返回日期标头的值；如果标头缺失或无法解析（此时必须忽略该标头），则返回 -1。
+     */
+    private static long getDateHeader(HttpServletRequest req, String name) {
+        try {
+            return req.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+
+    private void sendNotModified(HttpServletResponse resp, String eTag,
+                                 long lastModified) {
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        maybeSetLastModified(resp, lastModified);
+        maybeSetETag(resp, eTag);
+    }
+
+
+    /*
+     * Sets the ETag header field if it has not already been set and the
+     * servlet provides an entity-tag for the requested resource.
+     * 如果尚未设置 ETag 标头字段，并且 servlet 为所请求资源提供了实体标签，
+     * 则设置该字段。
+     */
+    private void maybeSetETag(HttpServletResponse resp, String eTag) {
+        if (eTag == null || resp.containsHeader(HEADER_ETAG))
+            return;
+        resp.setHeader(HEADER_ETAG, eTag);
+    }
+
+
     /*
      * Sets the Last-Modified entity header field, if it has not
      * already been set and if the value is meaningful.  Called before
@@ -921,6 +1414,153 @@ public abstract class HttpServlet extends GenericServlet
 }
 
 
+/*
+ * The HTTP methods a servlet class implements, derived from the doXXX
+ * methods it overrides, along with the pre-built Allow header value
+ * returned for OPTIONS requests.
+ * servlet 类所实现的 HTTP 方法（根据其重写的 doXXX 方法得出），
+ * 以及为 OPTIONS 请求预先构建的 Allow 标头值。
+ */
+// file private
+final class MethodTable {
+
+    private final boolean allowGet;
+    private final boolean allowHead;
+    private final boolean overrideHead;
+    private final boolean allowPost;
+    private final boolean allowPut;
+    private final boolean allowDelete;
+    private final String allow;
+
+    // file private
+    MethodTable(Class<?> servletClass) {
+        boolean get = false;
+        boolean head = false;
+        boolean post = false;
+        boolean put = false;
+        boolean delete = false;
+
+        Class<?> clazz = servletClass;
+        while (clazz != null && !clazz.equals(HttpServlet.class)) {
+            for (Method m : clazz.getDeclaredMethods()) {
+                String methodName = m.getName();
+                if (methodName.equals("doGet")) {
+                    get = true;
+                } else if (methodName.equals("doHead")) {
+                    head = true;
+                } else if (methodName.equals("doPost")) {
+                    post = true;
+                } else if (methodName.equals("doPut")) {
+                    put = true;
+                } else if (methodName.equals("doDelete")) {
+                    delete = true;
+                }
+            }
+            clazz = clazz.getSuperclass();
+        }
+
+        allowGet = get;
+        allowHead = get || head;
+        overrideHead = head;
+        allowPost = post;
+        allowPut = put;
+        allowDelete = delete;
+
+        // TRACE and OPTIONS are always allowed. HEAD is advertised only
+        // when it is backed by doGet, as it always has been.
+        StringBuilder sb = new StringBuilder();
+        if (get) {
+            sb.append("GET, HEAD, ");
+        }
+        if (post) {
+            sb.append("POST, ");
+        }
+        if (put) {
+            sb.append("PUT, ");
+        }
+        if (delete) {
+            sb.append("DELETE, ");
+        }
+        sb.append("TRACE, OPTIONS");
+        allow = sb.toString();
+    }
+
+    boolean allowsGet() {
+        return allowGet;
+    }
+
+    boolean allowsHead() {
+        return allowHead;
+    }
+
+    boolean overridesHead() {
+        return overrideHead;
+    }
+
+    boolean allowsPost() {
+        return allowPost;
+    }
+
+    boolean allowsPut() {
+        return allowPut;
+    }
+
+    boolean allowsDelete() {
+        return allowDelete;
+    }
+
+    String getAllow() {
+        return allow;
+    }
+}
+
+
+/*
+ * A request whose Range header is hidden, passed to doGet when the
+ * If-Range precondition does not hold.
+ * 隐藏了 Range 标头的请求，在 If-Range 前提条件不成立时传递给 doGet。
+ */
+// file private
+class NoRangeRequest extends HttpServletRequestWrapper {
+
+    // file private
+    NoRangeRequest(HttpServletRequest r) {
+        super(r);
+    }
+
+    private static boolean isHidden(String name) {
+        return "range".equalsIgnoreCase(name)
+            || "if-range".equalsIgnoreCase(name);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return isHidden(name) ? null : super.getHeader(name);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        if (isHidden(name)) {
+            return Collections.emptyEnumeration();
+        }
+        return super.getHeaders(name);
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        List<String> names = new ArrayList<String>();
+        Enumeration<String> e = super.getHeaderNames();
+        while (e.hasMoreElements()) {
+            String name = e.nextElement();
+            if (!isHidden(name)) {
+                names.add(name);
+            }
+        }
+        return Collections.enumeration(names);
+    }
+}
+
+
 /*
  * A response that includes no body, for use in (dumb) "HEAD" support.
  * This just swallows that body, counting the bytes in order to set
@@ -952,7 +1592,7 @@ class NoBodyResponse extends HttpServletResponseWrapper {
             if (writer != null) {
                 writer.flush();
             }
-            setContentLength(noBody.getContentLength());
+            setContentLengthLong(noBody.getContentLength());
         }
     }
 
@@ -1019,9 +1659,8 @@ class NoBodyResponse extends HttpServletResponseWrapper {
         }
 
         if (writer == null) {
-            OutputStreamWriter w = new OutputStreamWriter(
-                noBody, getCharacterEncoding());
-            writer = new PrintWriter(w);
+            writer = new PrintWriter(
+                new NoBodyWriter(noBody, getCharacterEncoding()));
         }
 
         return writer;
@@ -1041,16 +1680,39 @@ class NoBodyOutputStream extends ServletOutputStream {
     private static ResourceBundle lStrings =
         ResourceBundle.getBundle(LSTRING_FILE);
 
-    private int contentLength = 0;
+    private long contentLength = 0;
 
     // file private
     NoBodyOutputStream() {}
 
     // file private
-    int getContentLength() {
+    long getContentLength() {
         return contentLength;
     }
 
+    // file private
+    void addContentLength(int len) {
+        contentLength += len;
+    }
+
+    @Override
+    public void write(ByteBuffer src) {
+        contentLength += src.remaining();
+        src.position(src.limit());
+    }
+
+    @Override
+    public long transferFrom(FileChannel src, long position, long count)
+        throws IOException
+    {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException();
+        }
+        long n = Math.max(0, Math.min(count, src.size() - position));
+        contentLength += n;
+        return n;
+    }
+
     @Override
     public void write(int b) {
         contentLength++;
@@ -1087,3 +1749,183 @@ class NoBodyOutputStream extends ServletOutputStream {
 
     }
 }
+
+
+/*
+ * Writer that counts the bytes its characters encode to in the response
+ * character encoding, without producing them. UTF-8 and single-byte
+ * charsets are counted arithmetically; other charsets go through a
+ * CharsetEncoder into a reused buffer. Characters that cannot be encoded
+ * count as the one-byte replacement an OutputStreamWriter would write.
+ * 统计其字符以响应字符编码编码后的字节数而不实际产生这些字节的 Writer。
+ * UTF-8 和单字节字符集通过算术计数；其他字符集通过 CharsetEncoder
+ * 编码到复用的缓冲区中。
+ */
+// file private
+class NoBodyWriter extends Writer {
+
+    private static final int SINGLE_BYTE = 0;
+    private static final int UTF_8 = 1;
+    private static final int OTHER = 2;
+
+    private final NoBodyOutputStream noBody;
+    private final int mode;
+
+    // a high surrogate whose low surrogate has not been written yet
+    private boolean pendingHighSurrogate;
+
+    // only used for OTHER charsets
+    private CharsetEncoder encoder;
+    private CharBuffer chars;
+    private ByteBuffer bytes;
+
+    // file private
+    NoBodyWriter(NoBodyOutputStream noBody, String encoding)
+        throws UnsupportedEncodingException
+    {
+        this.noBody = noBody;
+
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+
+        if (charset.name().equals("UTF-8")) {
+            mode = UTF_8;
+        } else {
+            CharsetEncoder enc = charset.newEncoder();
+            if (enc.maxBytesPerChar() == 1.0f) {
+                mode = SINGLE_BYTE;
+            } else {
+                mode = OTHER;
+                encoder = enc
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                chars = CharBuffer.allocate(1024);
+                bytes = ByteBuffer.allocate(
+                    (int) Math.ceil(1024 * enc.maxBytesPerChar()) + 16);
+            }
+        }
+    }
+
+    @Override
+    public void write(int c) {
+        if (mode == OTHER) {
+            // the buffer holds at most a pending high surrogate
+            chars.put((char) c);
+            encodeBuffered();
+        } else {
+            noBody.addContentLength(count((char) c));
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        if (mode == OTHER) {
+            encode(CharBuffer.wrap(cbuf, off, len));
+            return;
+        }
+        int n = 0;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            n += count(cbuf[i]);
+        }
+        noBody.addContentLength(n);
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        if (mode == OTHER) {
+            encode(CharBuffer.wrap(str, off, off + len));
+            return;
+        }
+        int n = 0;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            n += count(str.charAt(i));
+        }
+        noBody.addContentLength(n);
+    }
+
+    /*
+     * Returns the number of bytes the given character adds, for UTF-8
+     * and single-byte charsets. A surrogate pair is counted when its low
+     * surrogate is seen: four bytes in UTF-8, one replacement byte in a
+     * single-byte charset.
+     */
+    private int count(char c) {
+        int n = 0;
+        if (pendingHighSurrogate) {
+            pendingHighSurrogate = false;
+            if (Character.isLowSurrogate(c)) {
+                return (mode == UTF_8) ? 4 : 1;
+            }
+            // unpaired high surrogate, replaced by one byte
+            n = 1;
+        }
+        if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = true;
+        } else if (mode == SINGLE_BYTE || c < 0x80
+                   || Character.isLowSurrogate(c)) {
+            n += 1;
+        } else if (c < 0x800) {
+            n += 2;
+        } else {
+            n += 3;
+        }
+        return n;
+    }
+
+    /*
+     * Encodes the characters into the reused byte buffer and counts the
+     * result. Characters the encoder does not consume yet (a trailing
+     * high surrogate) are kept for the next write.
+     */
+    private void encode(CharBuffer in) {
+        while (in.hasRemaining()) {
+            int n = Math.min(in.remaining(), chars.remaining());
+            int limit = in.limit();
+            in.limit(in.position() + n);
+            chars.put(in);
+            in.limit(limit);
+            encodeBuffered();
+        }
+    }
+
+    /*
+     * Encodes the characters put into the reused character buffer and
+     * counts the result.
+     */
+    private void encodeBuffered() {
+        chars.flip();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, bytes, false);
+            noBody.addContentLength(bytes.position());
+            bytes.clear();
+        } while (result.isOverflow());
+        chars.compact();
+    }
+
+    @Override
+    public void flush() {
+        // nothing is buffered, a pending high surrogate waits for its pair
+    }
+
+    @Override
+    public void close() {
+        if (mode == OTHER) {
+            chars.flip();
+            encoder.encode(chars, bytes, true);
+            encoder.flush(bytes);
+            noBody.addContentLength(bytes.position());
+            bytes.clear();
+            chars.clear();
+        } else if (pendingHighSurrogate) {
+            pendingHighSurrogate = false;
+            noBody.addContentLength(1);
+        }
+    }
+}
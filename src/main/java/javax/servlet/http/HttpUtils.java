@@ -59,9 +59,9 @@
 package javax.servlet.http;
 
 import javax.servlet.ServletInputStream;
+import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.ResourceBundle;
-import java.util.StringTokenizer;
 import java.io.IOException;
 
 /**
@@ -115,40 +115,13 @@ public class HttpUtils {
      */
     public static Hashtable<String, String[]> parseQueryString(String s) {
 
-        String valArray[] = null;
-	
         if (s == null) {
             throw new IllegalArgumentException();
         }
 
-        Hashtable<String, String[]> ht = new Hashtable<String, String[]>();
-        StringBuilder sb = new StringBuilder();
-        StringTokenizer st = new StringTokenizer(s, "&");
-        while (st.hasMoreTokens()) {
-        String pair = st.nextToken();
-        int pos = pair.indexOf('=');
-        if (pos == -1) {
-            // XXX
-            // should give more detail about the illegal argument
-            throw new IllegalArgumentException();
-        }
-        String key = parseName(pair.substring(0, pos), sb);
-        String val = parseName(pair.substring(pos+1, pair.length()), sb);
-        if (ht.containsKey(key)) {
-            String oldVals[] = ht.get(key);
-            valArray = new String[oldVals.length + 1];
-            for (int i = 0; i < oldVals.length; i++) {
-                valArray[i] = oldVals[i];
-            }
-            valArray[oldVals.length] = val;
-        } else {
-            valArray = new String[1];
-            valArray[0] = val;
-        }
-        ht.put(key, valArray);
-    }
-
-	return ht;
+        ParameterMultiMap params = new QueryStringParser(
+            FormDataParser.ISO_8859_1, Integer.MAX_VALUE, true).parse(s);
+        return toHashtable(params);
     }
 
 
@@ -202,76 +175,49 @@ public class HttpUtils {
 	}
 	
 	//
-	// Make sure we read the entire POSTed body.
+	// Decode the body as it is read, in a fixed-size window, rather
+	// than reading it whole into an array sized by the given length.
 	//
-        byte[] postedBytes = new byte [len];
+        ParameterMultiMap params;
         try {
-            int offset = 0;
-       
-	    do {
-		int inputLen = in.read (postedBytes, offset, len - offset);
-		if (inputLen <= 0) {
-		    String msg = lStrings.getString("err.io.short_read");
-		    throw new IllegalArgumentException (msg);
-		}
-		offset += inputLen;
-	    } while ((len - offset) > 0);
-
-	} catch (IOException e) {
-	    throw new IllegalArgumentException(e.getMessage());
-	}
+            params = new FormDataParser(FormDataParser.ISO_8859_1,
+                Integer.MAX_VALUE, Integer.MAX_VALUE, true).parse(in, len);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
 
         // XXX we shouldn't assume that the only kind of POST body
         // is FORM data encoded using ASCII or ISO Latin/1 ... or
         // that the body should always be treated as FORM data.
         //
 
-        try {
-            String postedBody = new String(postedBytes, 0, len, "8859_1");
-            return parseQueryString(postedBody);
-        } catch (java.io.UnsupportedEncodingException e) {
-            // XXX function should accept an encoding parameter & throw this
-            // exception.  Otherwise throw something expected.
-            throw new IllegalArgumentException(e.getMessage());
-        }
+        return toHashtable(params);
     }
 
 
     /*
-     * Parse a name in the query string.
+     * Copies parsed parameters into the table returned by the parse
+     * methods.
      */
-    private static String parseName(String s, StringBuilder sb) {
-        sb.setLength(0);
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i); 
-            switch (c) {
-                case '+':
-                    sb.append(' ');
-                    break;
-                case '%':
-                    try {
-                        sb.append((char) Integer.parseInt(s.substring(i+1, i+3), 
-                                16));
-                        i += 2;
-                    } catch (NumberFormatException e) {
-                        // XXX
-                        // need to be more specific about illegal arg
-                        throw new IllegalArgumentException();
-                    } catch (StringIndexOutOfBoundsException e) {
-                        String rest  = s.substring(i);
-                        sb.append(rest);
-                        if (rest.length()==2)
-                            i++;
-                        }
-
-                        break;
-                default:
-                    sb.append(c);
-                    break;
-            }
+    private static Hashtable<String, String[]> toHashtable(
+            ParameterMultiMap params) {
+        Hashtable<String, String[]> ht =
+            new Hashtable<String, String[]>(params.getNameCount() * 2 + 1);
+        for (Enumeration<String> e = params.getNames(); e.hasMoreElements(); ) {
+            String name = e.nextElement();
+            ht.put(name, params.getValues(name));
         }
+        return ht;
+    }
+
 
-        return sb.toString();
+    /*
+     * Parse a name in the query string, from start to end. An escape is
+     * taken as a character, an escape cut short by the end of the name is
+     * kept as it is, and any other malformed escape is an error.
+     */
+    static String parseName(String s, int start, int end) {
+        return PercentCodec.decodeStrict(s, start, end);
     }
 
 
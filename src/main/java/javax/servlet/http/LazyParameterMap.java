@@ -0,0 +1,312 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A read-only <code>Map</code> of parameter names to values, as returned
+ * by {@link javax.servlet.ServletRequest#getParameterMap}, over one or
+ * more {@link ParameterMultiMap}s.
+ *
+ * <p>The value array of a name is only built, and the values decoded,
+ * when the name is first looked up; values kept encoded by
+ * {@link QueryStringParser} are never decoded for names that are never
+ * asked for. Values of the same name from several sources are presented
+ * in the order of the sources, so the query string parameters should
+ * come before those of the request body.
+ *
+ * <p>The map takes ownership of its sources, which must not be modified
+ * after it is constructed. It is thread safe once published, and value
+ * arrays are shared between lookups: they must not be modified.
+ *
+ * @since Servlet 3.1
+ */
+public class LazyParameterMap extends AbstractMap<String, String[]> {
+
+    // marks a name that was looked up and has no value
+    private static final String[] ABSENT = new String[0];
+
+    // the sources are not thread safe, and only read under lock
+    private final ParameterMultiMap[] sources;
+    private final Object lock = new Object();
+
+    private final ConcurrentMap<String, String[]> cache =
+        new ConcurrentHashMap<String, String[]>();
+    // the distinct names of all sources, built on first use
+    private volatile String[] names;
+    private Set<Map.Entry<String, String[]>> entrySet;
+
+    /**
+     * Constructs a map over the parameters of one or more sources.
+     *
+     * @param sources the parameters, in the order their values are to
+     * be presented
+     */
+    public LazyParameterMap(ParameterMultiMap... sources) {
+        for (ParameterMultiMap source : sources) {
+            if (source == null) {
+                throw new NullPointerException();
+            }
+        }
+        this.sources = sources.clone();
+    }
+
+    /**
+     * Gets the values of a parameter, decoding them on first lookup.
+     *
+     * @param key the name of the parameter
+     *
+     * @return the values of the parameter, which must not be modified,
+     * or <code>null</code> if the parameter does not exist
+     */
+    @Override
+    public String[] get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String name = (String) key;
+        String[] values = cache.get(name);
+        if (values == null) {
+            values = load(name);
+            String[] cached = cache.putIfAbsent(name, values);
+            if (cached != null) {
+                values = cached;
+            }
+        }
+        return values == ABSENT ? null : values;
+    }
+
+    /**
+     * Gets the first value of a parameter, as
+     * {@link javax.servlet.ServletRequest#getParameter} does.
+     *
+     * @param name the name of the parameter
+     *
+     * @return the first value, or <code>null</code> if the parameter
+     * does not exist
+     */
+    public String getFirst(String name) {
+        String[] values = get(name);
+        return values == null ? null : values[0];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return names().length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        synchronized (lock) {
+            for (ParameterMultiMap source : sources) {
+                if (!source.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a read-only view of the parameters, ordered by first
+     * occurrence of each name. The values of an entry are decoded when
+     * they are first asked for.
+     *
+     * @return a set view of the parameters
+     */
+    @Override
+    public Set<Map.Entry<String, String[]>> entrySet() {
+        Set<Map.Entry<String, String[]>> es = entrySet;
+        if (es == null) {
+            es = new EntrySet();
+            entrySet = es;
+        }
+        return es;
+    }
+
+    /*
+     * Builds the value array of a name from all sources.
+     */
+    private String[] load(String name) {
+        synchronized (lock) {
+            String[] result = null;
+            for (ParameterMultiMap source : sources) {
+                String[] values = source.getValues(name);
+                if (values == null) {
+                    continue;
+                }
+                if (result == null) {
+                    result = values;
+                } else {
+                    String[] merged =
+                        new String[result.length + values.length];
+                    System.arraycopy(result, 0, merged, 0, result.length);
+                    System.arraycopy(values, 0, merged, result.length,
+                                     values.length);
+                    result = merged;
+                }
+            }
+            return result == null ? ABSENT : result;
+        }
+    }
+
+    private String[] names() {
+        String[] n = names;
+        if (n == null) {
+            synchronized (lock) {
+                if (sources.length == 1) {
+                    n = new String[sources[0].getNameCount()];
+                    Enumeration<String> e = sources[0].getNames();
+                    for (int i = 0; i < n.length; i++) {
+                        n[i] = e.nextElement();
+                    }
+                } else {
+                    Set<String> all = new LinkedHashSet<String>();
+                    for (ParameterMultiMap source : sources) {
+                        Enumeration<String> e = source.getNames();
+                        while (e.hasMoreElements()) {
+                            all.add(e.nextElement());
+                        }
+                    }
+                    n = all.toArray(new String[all.size()]);
+                }
+            }
+            names = n;
+        }
+        return n;
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<String, String[]>> {
+
+        @Override
+        public int size() {
+            return names().length;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, String[]>> iterator() {
+            final String[] n = names();
+            return new Iterator<Map.Entry<String, String[]>>() {
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    return index < n.length;
+                }
+
+                @Override
+                public Map.Entry<String, String[]> next() {
+                    if (index >= n.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return new Entry(n[index++]);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /*
+     * An entry whose values are looked up when they are asked for.
+     */
+    private class Entry implements Map.Entry<String, String[]> {
+
+        private final String name;
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getKey() {
+            return name;
+        }
+
+        @Override
+        public String[] getValue() {
+            return get(name);
+        }
+
+        @Override
+        public String[] setValue(String[] value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return name.equals(e.getKey()) && getValue() == e.getValue();
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() ^ System.identityHashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + Arrays.toString(getValue());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import java.io.IOException;
+import java.util.EventListener;
+
+/**
+ * Receives the parts of a <code>multipart/form-data</code> body as a
+ * {@link MultipartParser} parses them, so that a part can be processed
+ * before the rest of the body has arrived.
+ *
+ * <p>For each part, {@link #onPartStart} is invoked once its headers
+ * have been parsed, {@link #onPartData} as its content arrives, and
+ * {@link #onPartEnd} once its content is complete. A listener that
+ * processes the content as it arrives can ask the parser not to keep it;
+ * otherwise the part is complete, like the parts returned by
+ * {@link HttpServletRequest#getParts}, when <code>onPartEnd</code> is
+ * invoked.
+ *
+ * @see MultipartParser
+ * @see MultipartReadListener
+ *
+ * @since Servlet 3.1
+ */
+public interface MultipartListener extends EventListener {
+
+    /**
+     * Invoked when the headers of a part have been parsed.
+     *
+     * @param part the part, whose headers, name and submitted file name
+     * are available
+     *
+     * @return <code>true</code> if the parser is to keep the content of
+     * the part, or <code>false</code> if the content is only passed to
+     * {@link #onPartData}
+     *
+     * @throws IOException if an I/O related error has occurred during
+     * processing
+     */
+    public boolean onPartStart(Part part) throws IOException;
+
+    /**
+     * Invoked when content of a part has been parsed. The array belongs
+     * to the parser and is only valid during the call.
+     *
+     * @param part the part
+     * @param b the array holding the content
+     * @param off the offset of the content in the array
+     * @param len the number of bytes of content
+     *
+     * @throws IOException if an I/O related error has occurred during
+     * processing
+     */
+    public void onPartData(Part part, byte[] b, int off, int len)
+        throws IOException;
+
+    /**
+     * Invoked when the content of a part is complete.
+     *
+     * @param part the part
+     *
+     * @throws IOException if an I/O related error has occurred during
+     * processing
+     */
+    public void onPartEnd(Part part) throws IOException;
+}
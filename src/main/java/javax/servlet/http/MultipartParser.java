@@ -0,0 +1,793 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+
+/**
+ * Parses a <code>multipart/form-data</code> request body into
+ * {@link Part} objects, as configured by a
+ * {@link MultipartConfigElement}.
+ *
+ * <p>The body is read into a fixed-size window and searched for part
+ * delimiters with a precomputed skip table (Boyer-Moore-Horspool), so
+ * a part is never held in memory as a whole while it is parsed. The
+ * content of a part is kept in memory while it is no larger than the
+ * file size threshold, and written to a temporary file in the configured
+ * location beyond it. The maximum file size and the maximum request
+ * size are enforced as the body is read.
+ *
+ * <p>Part headers are decoded as UTF-8, which is what browsers use for
+ * file names submitted from UTF-8 pages.
+ *
+ * <p>The body can be read by the parser, with {@link #parse}, or pushed
+ * to it as it arrives, with {@link #feed} or {@link #readFrom} followed
+ * by {@link #finish}; {@link MultipartReadListener} does the latter from
+ * the callbacks of a non-blocking request. A {@link MultipartListener}
+ * given to the parser is notified as each part starts, receives data and
+ * ends, and chooses whether the parser keeps the content of the part.
+ *
+ * <p>A parser parses a single request body and is not thread safe. If
+ * parsing fails, the parts parsed so far are deleted.
+ *
+ * @see HttpServletRequest#getParts
+ * @see MultipartListener
+ *
+ * @since Servlet 3.1
+ */
+public class MultipartParser {
+
+    private static final String LSTRING_FILE =
+        "javax.servlet.http.LocalStrings";
+    private static ResourceBundle lStrings =
+        ResourceBundle.getBundle(LSTRING_FILE);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MIN_WINDOW_SIZE = 16 * 1024;
+
+    private static final int PREAMBLE = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY = 2;
+    private static final int EPILOGUE = 3;
+
+    private final long maxFileSize;
+    private final long maxRequestSize;
+    private final int fileSizeThreshold;
+    private final File location;
+
+    // CRLF "--" boundary
+    private final byte[] delimiter;
+    private final int[] skip = new int[256];
+
+    private final byte[] window;
+    private int pos;
+    private int limit;
+    private int state = PREAMBLE;
+    private long requestSize;
+
+    private final MultipartListener listener;
+    private final List<Part> parts = new ArrayList<Part>();
+    private final List<String> headerNames = new ArrayList<String>();
+    private final List<String> headerValues = new ArrayList<String>();
+    private MultipartPart part;
+
+    /**
+     * Constructs a parser for a request body.
+     *
+     * @param contentType the content type of the request, whose
+     * <code>boundary</code> parameter delimits the parts
+     * @param config the multipart configuration of the servlet
+     * @param tempDirectory the directory against which a relative or
+     * empty location is resolved, normally the one given by the
+     * {@link ServletContext#TEMPDIR} context attribute, or
+     * <code>null</code> for the default temporary-file directory
+     *
+     * @exception ServletException if the content type is not
+     * <code>multipart/form-data</code> or has no boundary
+     */
+    public MultipartParser(String contentType, MultipartConfigElement config,
+            File tempDirectory) throws ServletException {
+        this(contentType, config, tempDirectory, null);
+    }
+
+    /**
+     * Constructs a parser for a request body that notifies a listener of
+     * the parts as they are parsed.
+     *
+     * @param contentType the content type of the request, whose
+     * <code>boundary</code> parameter delimits the parts
+     * @param config the multipart configuration of the servlet
+     * @param tempDirectory the directory against which a relative or
+     * empty location is resolved, or <code>null</code> for the default
+     * temporary-file directory
+     * @param listener the listener to notify, or <code>null</code>
+     *
+     * @exception ServletException if the content type is not
+     * <code>multipart/form-data</code> or has no boundary
+     */
+    public MultipartParser(String contentType, MultipartConfigElement config,
+            File tempDirectory, MultipartListener listener)
+            throws ServletException {
+        this.listener = listener;
+        String boundary = getBoundary(contentType);
+        maxFileSize = config.getMaxFileSize();
+        maxRequestSize = config.getMaxRequestSize();
+        fileSizeThreshold = config.getFileSizeThreshold();
+
+        File dir = (tempDirectory != null ? tempDirectory
+                    : new File(System.getProperty("java.io.tmpdir")));
+        String loc = config.getLocation();
+        if (loc != null && loc.length() > 0) {
+            File f = new File(loc);
+            dir = (f.isAbsolute() ? f : new File(dir, loc));
+        }
+        location = dir;
+
+        byte[] b = boundary.getBytes(UTF_8);
+        delimiter = new byte[b.length + 4];
+        delimiter[0] = '\r';
+        delimiter[1] = '\n';
+        delimiter[2] = '-';
+        delimiter[3] = '-';
+        System.arraycopy(b, 0, delimiter, 4, b.length);
+        int last = delimiter.length - 1;
+        Arrays.fill(skip, delimiter.length);
+        for (int i = 0; i < last; i++) {
+            skip[delimiter[i] & 0xff] = last - i;
+        }
+
+        window = new byte[Math.max(MIN_WINDOW_SIZE, 4 * delimiter.length)];
+        // the first delimiter may be at the start of the body, without
+        // the CRLF that ends the preamble
+        window[0] = '\r';
+        window[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * Reads and parses a whole request body.
+     *
+     * @param in the stream of the request body
+     *
+     * @return the parts of the body, in order
+     *
+     * @exception IOException if reading fails or the body is malformed
+     *
+     * @exception IllegalStateException if a part is larger than the
+     * maximum file size or the body larger than the maximum request size
+     */
+    public Collection<Part> parse(InputStream in) throws IOException {
+        while (readFrom(in) >= 0) {
+            // parsed as read
+        }
+        return finish();
+    }
+
+    /**
+     * Reads once from a stream into the buffer of this parser, and parses
+     * the data read. This lets the data go from the stream to the parser
+     * without an intermediate copy; it blocks if the stream does, so in
+     * non-blocking mode it must only be called when the stream is ready.
+     *
+     * @param in the stream of the request body
+     *
+     * @return the number of bytes read, or -1 if the end of the stream
+     * is reached
+     *
+     * @exception IOException if reading fails or the body is malformed
+     *
+     * @exception IllegalStateException if a part is larger than the
+     * maximum file size or the body larger than the maximum request size
+     */
+    public int readFrom(InputStream in) throws IOException {
+        try {
+            compact();
+            int n = in.read(window, limit, window.length - limit);
+            if (n > 0) {
+                count(n);
+                limit += n;
+                process();
+            }
+            return n;
+        } catch (IOException e) {
+            deleteParts();
+            throw e;
+        } catch (RuntimeException e) {
+            deleteParts();
+            throw e;
+        }
+    }
+
+    /**
+     * Parses a chunk of a request body.
+     *
+     * @param b the array holding the data
+     * @param off the offset of the data in the array
+     * @param len the number of bytes of data
+     *
+     * @exception IOException if the body is malformed
+     *
+     * @exception IllegalStateException if a part is larger than the
+     * maximum file size or the body larger than the maximum request size
+     */
+    public void feed(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        try {
+            while (len > 0) {
+                compact();
+                int n = Math.min(len, window.length - limit);
+                System.arraycopy(b, off, window, limit, n);
+                count(n);
+                limit += n;
+                off += n;
+                len -= n;
+                process();
+            }
+        } catch (IOException e) {
+            deleteParts();
+            throw e;
+        } catch (RuntimeException e) {
+            deleteParts();
+            throw e;
+        }
+    }
+
+    /**
+     * Signals the end of the request body.
+     *
+     * @return the parts of the body, in order
+     *
+     * @exception IOException if the body ended before its closing
+     * delimiter
+     */
+    public Collection<Part> finish() throws IOException {
+        if (state != EPILOGUE) {
+            deleteParts();
+            throw new IOException(
+                lStrings.getString("err.multipart.truncated"));
+        }
+        return parts;
+    }
+
+    /**
+     * Extracts the boundary from the content type of a multipart request.
+     *
+     * @param contentType the content type of the request
+     *
+     * @return the boundary
+     *
+     * @exception ServletException if the content type is not
+     * <code>multipart/form-data</code> or has no boundary
+     */
+    static String getBoundary(String contentType) throws ServletException {
+        if (contentType == null
+                || !contentType.toLowerCase(Locale.ENGLISH).startsWith(
+                    "multipart/form-data")) {
+            throw new ServletException(MessageFormat.format(
+                lStrings.getString("err.multipart.not_multipart"),
+                contentType));
+        }
+        String boundary = getParameter(contentType, "boundary");
+        if (boundary == null || boundary.length() == 0) {
+            throw new ServletException(MessageFormat.format(
+                lStrings.getString("err.multipart.no_boundary"),
+                contentType));
+        }
+        return boundary;
+    }
+
+    /*
+     * Gets a parameter of a header value such as
+     * 'form-data; name="field"', unquoting it if it is a quoted string.
+     */
+    static String getParameter(String header, String name) {
+        int len = header.length();
+        int i = header.indexOf(';');
+        while (i >= 0 && i < len) {
+            i++;
+            int eq = i;
+            while (eq < len && header.charAt(eq) != '='
+                    && header.charAt(eq) != ';') {
+                eq++;
+            }
+            boolean match =
+                header.substring(i, eq).trim().equalsIgnoreCase(name);
+            if (eq == len || header.charAt(eq) == ';') {
+                i = eq;
+                continue;
+            }
+            int v = eq + 1;
+            while (v < len && header.charAt(v) == ' ') {
+                v++;
+            }
+            String value;
+            int end;
+            if (v < len && header.charAt(v) == '"') {
+                StringBuilder sb = new StringBuilder();
+                end = v + 1;
+                while (end < len && header.charAt(end) != '"') {
+                    char c = header.charAt(end);
+                    // a backslash only escapes a quote or a backslash, so
+                    // that Windows paths sent as file names survive
+                    if (c == '\\' && end + 1 < len
+                            && (header.charAt(end + 1) == '"'
+                                || header.charAt(end + 1) == '\\')) {
+                        c = header.charAt(++end);
+                    }
+                    sb.append(c);
+                    end++;
+                }
+                value = sb.toString();
+                end = header.indexOf(';', end);
+            } else {
+                end = header.indexOf(';', v);
+                value = header.substring(v, end < 0 ? len : end).trim();
+            }
+            if (match) {
+                return value;
+            }
+            i = end;
+        }
+        return null;
+    }
+
+    private void count(int n) {
+        requestSize += n;
+        if (maxRequestSize >= 0 && requestSize > maxRequestSize) {
+            throw new IllegalStateException(MessageFormat.format(
+                lStrings.getString("err.multipart.max_request_size"),
+                String.valueOf(maxRequestSize)));
+        }
+    }
+
+    /*
+     * Moves the unprocessed bytes to the start of the window.
+     */
+    private void compact() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(window, pos, window, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        } else if (limit == window.length) {
+            // the unprocessed bytes fill the window, which only headers
+            // can do
+            throw new IOException(MessageFormat.format(
+                lStrings.getString("err.multipart.header_too_large"),
+                String.valueOf(window.length)));
+        }
+    }
+
+    /*
+     * Parses as much of the window as possible.
+     */
+    private void process() throws IOException {
+        for (;;) {
+            switch (state) {
+            case PREAMBLE:
+            case BODY:
+                if (!processContent()) {
+                    return;
+                }
+                break;
+            case HEADERS:
+                if (!processHeader()) {
+                    return;
+                }
+                break;
+            default:
+                // the epilogue is ignored
+                pos = limit;
+                return;
+            }
+        }
+    }
+
+    /*
+     * Passes on content up to the next delimiter, and consumes the
+     * delimiter. Returns false if more input is needed.
+     */
+    private boolean processContent() throws IOException {
+        int i = indexOfDelimiter(pos, limit);
+        if (i < 0) {
+            // keep what may be the start of a delimiter
+            int end = limit - (delimiter.length - 1);
+            if (end > pos) {
+                if (state == BODY) {
+                    content(pos, end - pos);
+                }
+                pos = end;
+            }
+            return false;
+        }
+        if (state == BODY && i > pos) {
+            content(pos, i - pos);
+        }
+        pos = i;
+        int j = i + delimiter.length;
+        if (limit - j < 2) {
+            return false;
+        }
+        if (window[j] == '-' && window[j + 1] == '-') {
+            endPart();
+            state = EPILOGUE;
+            pos = limit;
+            return true;
+        }
+        // skip transport padding
+        while (j < limit && (window[j] == ' ' || window[j] == '\t')) {
+            j++;
+        }
+        if (limit - j < 2) {
+            return false;
+        }
+        if (window[j] != '\r' || window[j + 1] != '\n') {
+            throw new IOException(
+                lStrings.getString("err.multipart.malformed"));
+        }
+        endPart();
+        state = HEADERS;
+        pos = j + 2;
+        return true;
+    }
+
+    /*
+     * Parses a header line, or starts the part at the empty line that
+     * ends the headers. Returns false if more input is needed.
+     */
+    private boolean processHeader() throws IOException {
+        int eol = pos;
+        while (eol < limit - 1
+                && (window[eol] != '\r' || window[eol + 1] != '\n')) {
+            eol++;
+        }
+        if (eol >= limit - 1) {
+            return false;
+        }
+        if (eol == pos) {
+            pos += 2;
+            startPart();
+            state = BODY;
+            return true;
+        }
+        String line = new String(window, pos, eol - pos, UTF_8);
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+            throw new IOException(
+                lStrings.getString("err.multipart.malformed"));
+        }
+        headerNames.add(line.substring(0, colon).trim());
+        headerValues.add(line.substring(colon + 1).trim());
+        pos = eol + 2;
+        return true;
+    }
+
+    /*
+     * Searches the delimiter with the Boyer-Moore-Horspool algorithm.
+     */
+    private int indexOfDelimiter(int from, int to) {
+        final byte[] w = window;
+        final byte[] d = delimiter;
+        final int last = d.length - 1;
+        final byte lastByte = d[last];
+        int i = from;
+        while (i <= to - d.length) {
+            byte c = w[i + last];
+            if (c == lastByte) {
+                int j = last - 1;
+                while (j >= 0 && w[i + j] == d[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += skip[c & 0xff];
+        }
+        return -1;
+    }
+
+    private void startPart() throws IOException {
+        part = new MultipartPart(this,
+            headerNames.toArray(new String[headerNames.size()]),
+            headerValues.toArray(new String[headerValues.size()]));
+        headerNames.clear();
+        headerValues.clear();
+        parts.add(part);
+        if (listener != null && !listener.onPartStart(part)) {
+            part.discardContent();
+        }
+    }
+
+    private void content(int off, int len) throws IOException {
+        part.write(window, off, len);
+        if (listener != null) {
+            listener.onPartData(part, window, off, len);
+        }
+    }
+
+    private void endPart() throws IOException {
+        if (part != null) {
+            MultipartPart p = part;
+            part = null;
+            p.close();
+            if (listener != null) {
+                listener.onPartEnd(p);
+            }
+        }
+    }
+
+    void deleteParts() {
+        for (Part p : parts) {
+            try {
+                p.delete();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        parts.clear();
+        part = null;
+    }
+
+    long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    int getFileSizeThreshold() {
+        return fileSizeThreshold;
+    }
+
+    File getLocation() {
+        return location;
+    }
+}
+
+
+/*
+ * A part whose content is held in an array while it is no larger than
+ * the file size threshold, and in a temporary file beyond it.
+ */
+// file private
+class MultipartPart implements Part {
+
+    private static final String LSTRING_FILE =
+        "javax.servlet.http.LocalStrings";
+    private static ResourceBundle lStrings =
+        ResourceBundle.getBundle(LSTRING_FILE);
+
+    private final MultipartParser parser;
+    private final String[] headerNames;
+    private final String[] headerValues;
+    private final String name;
+    private final String fileName;
+
+    private byte[] content = new byte[0];
+    private boolean discarded;
+    private long size;
+    // the temporary file holding the content, owned by the part
+    private Path file;
+    private FileChannel channel;
+    // where write(String) moved the temporary file to; the application
+    // owns that file, which is only read from
+    private Path written;
+
+    MultipartPart(MultipartParser parser, String[] headerNames,
+            String[] headerValues) {
+        this.parser = parser;
+        this.headerNames = headerNames;
+        this.headerValues = headerValues;
+        String disposition = getHeader("Content-Disposition");
+        if (disposition != null) {
+            name = MultipartParser.getParameter(disposition, "name");
+            fileName = MultipartParser.getParameter(disposition, "filename");
+        } else {
+            name = null;
+            fileName = null;
+        }
+    }
+
+    /*
+     * Makes the part count its content without keeping it.
+     */
+    void discardContent() {
+        discarded = true;
+    }
+
+    void write(byte[] b, int off, int len) throws IOException {
+        size += len;
+        long max = parser.getMaxFileSize();
+        if (max >= 0 && size > max) {
+            throw new IllegalStateException(MessageFormat.format(
+                lStrings.getString("err.multipart.max_file_size"),
+                name, String.valueOf(max)));
+        }
+        if (discarded) {
+            return;
+        }
+        if (channel == null && size > parser.getFileSizeThreshold()) {
+            File dir = parser.getLocation();
+            file = Files.createTempFile(dir.toPath(), "upload", ".tmp");
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            writeFully(ByteBuffer.wrap(content, 0, (int) (size - len)));
+            content = null;
+        }
+        if (channel != null) {
+            writeFully(ByteBuffer.wrap(b, off, len));
+            return;
+        }
+        int used = (int) (size - len);
+        if (size > content.length) {
+            content = Arrays.copyOf(content,
+                (int) Math.min(Math.max(size, 2L * content.length),
+                               parser.getFileSizeThreshold()));
+        }
+        System.arraycopy(b, off, content, used, len);
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (file != null) {
+            return Files.newInputStream(file);
+        }
+        if (written != null) {
+            return Files.newInputStream(written);
+        }
+        if (discarded) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        return new ByteArrayInputStream(content, 0, (int) size);
+    }
+
+    @Override
+    public String getContentType() {
+        return getHeader("Content-Type");
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getSubmittedFileName() {
+        return fileName;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void write(String fileName) throws IOException {
+        Path target = parser.getLocation().toPath().resolve(fileName);
+        if (file != null) {
+            close();
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            // the part no longer owns the file, delete() must not remove it
+            file = null;
+            written = target;
+        } else if (written != null) {
+            Files.copy(written, target, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.write(target, discarded ? new byte[0]
+                                          : Arrays.copyOf(content, (int) size));
+        }
+    }
+
+    @Override
+    public void delete() throws IOException {
+        close();
+        if (file != null) {
+            Files.deleteIfExists(file);
+            file = null;
+        }
+        written = null;
+        content = new byte[0];
+        size = 0;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        for (int i = 0; i < headerNames.length; i++) {
+            if (headerNames[i].equalsIgnoreCase(name)) {
+                return headerValues[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < headerNames.length; i++) {
+            if (headerNames[i].equalsIgnoreCase(name)) {
+                values.add(headerValues[i]);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        Collection<String> names = new LinkedHashSet<String>();
+        for (String n : headerNames) {
+            names.add(n);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+/**
+ * Parses a <code>multipart/form-data</code> request body in non-blocking
+ * mode, without tying up a thread while the client is sending it.
+ *
+ * <p>The listener registers itself as the {@link ReadListener} of the
+ * request input stream and passes whatever data is available to a
+ * {@link MultipartParser} each time the container invokes
+ * {@link #onDataAvailable}. The parser keeps its state between
+ * callbacks, so the {@link MultipartListener} of the parser is notified
+ * of each part as it arrives.
+ *
+ * <p>A typical use from an asynchronous servlet is:
+ * <pre>
+ *    final AsyncContext ac = req.startAsync();
+ *    MultipartParser parser = new MultipartParser(req.getContentType(),
+ *        config, tempDir, partListener);
+ *    new MultipartReadListener(req.getInputStream(), parser) {
+ *        protected void onComplete(Collection&lt;Part&gt; parts,
+ *                                  Throwable failure) {
+ *            ...
+ *            ac.complete();
+ *        }
+ *    }.start();
+ * </pre>
+ *
+ * @see MultipartParser
+ *
+ * @since Servlet 3.1
+ */
+public class MultipartReadListener implements ReadListener {
+
+    private final ServletInputStream in;
+    private final MultipartParser parser;
+
+    private final PartsFuture parts = new PartsFuture();
+    // only used from the container callbacks, which do not run
+    // concurrently
+    private boolean done;
+
+    /**
+     * Constructs a listener that feeds a request body to a parser.
+     *
+     * @param in the input stream of the request
+     * @param parser the parser of the body
+     *
+     * @throws IllegalArgumentException if <code>in</code> or
+     * <code>parser</code> is <code>null</code>
+     */
+    public MultipartReadListener(ServletInputStream in,
+            MultipartParser parser) {
+        if (in == null || parser == null) {
+            throw new IllegalArgumentException();
+        }
+        this.in = in;
+        this.parser = parser;
+    }
+
+    /**
+     * Registers this listener as the {@link ReadListener} of the stream.
+     *
+     * @exception IllegalStateException if the stream is not in an
+     * upgraded or asynchronous request, or already has a
+     * <code>ReadListener</code>
+     */
+    public void start() {
+        in.setReadListener(this);
+    }
+
+    /**
+     * Returns a future that completes with the parts of the body once it
+     * has been parsed, or completes exceptionally when reading or parsing
+     * fails or the container reports an error.
+     *
+     * @return the parts of the body
+     */
+    public Future<Collection<Part>> getParts() {
+        return parts;
+    }
+
+    /**
+     * Invoked by the container when data can be read. Parses data until
+     * the stream is no longer ready.
+     *
+     * @exception IOException if reading or parsing failed
+     */
+    @Override
+    public void onDataAvailable() throws IOException {
+        if (done) {
+            return;
+        }
+        try {
+            while (in.isReady()) {
+                if (parser.readFrom(in) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        } catch (RuntimeException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Invoked by the container when all data has been read. Completes
+     * the future returned by {@link #getParts}.
+     */
+    @Override
+    public void onAllDataRead() {
+        if (done) {
+            return;
+        }
+        Collection<Part> result;
+        try {
+            result = parser.finish();
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        done = true;
+        parts.complete(result);
+        onComplete(result, null);
+    }
+
+    /**
+     * Invoked by the container when an error occurs reading the request.
+     * Deletes the parts parsed so far and completes the listener with
+     * the error.
+     *
+     * @param t the error
+     */
+    @Override
+    public void onError(Throwable t) {
+        fail(t);
+    }
+
+    /**
+     * Invoked once, when the body has been parsed or parsing failed, just
+     * after the future returned by {@link #getParts} is done. Subclasses
+     * can override this method to process the parts and complete the
+     * <code>AsyncContext</code>.
+     *
+     * <p>The default implementation does nothing.
+     *
+     * @param parts the parts of the body, or <code>null</code> if
+     * parsing failed
+     * @param failure the error parsing failed with, or <code>null</code>
+     * if the body was parsed
+     */
+    protected void onComplete(Collection<Part> parts, Throwable failure) {
+    }
+
+    private void fail(Throwable t) {
+        if (done) {
+            return;
+        }
+        done = true;
+        parser.deleteParts();
+        parts.fail(t);
+        onComplete(null, t);
+    }
+}
+
+
+/*
+ * The future of MultipartReadListener, completed by the listener either
+ * with the parts or with an error. It cannot be cancelled by its
+ * consumers.
+ */
+// file private
+class PartsFuture implements Future<Collection<Part>> {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private Collection<Part> parts;
+    private Throwable error;
+    private boolean done;
+
+    void complete(Collection<Part> parts) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.parts = parts;
+            done = true;
+        }
+        latch.countDown();
+    }
+
+    /*
+     * A null error is replaced by a NullPointerException, so that get()
+     * always throws after fail().
+     */
+    void fail(Throwable error) {
+        if (error == null) {
+            error = new NullPointerException();
+        }
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.error = error;
+            done = true;
+        }
+        latch.countDown();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public Collection<Part> get()
+            throws InterruptedException, ExecutionException {
+        latch.await();
+        return getResult();
+    }
+
+    @Override
+    public Collection<Part> get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    private synchronized Collection<Part> getResult()
+            throws ExecutionException {
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return parts;
+    }
+}
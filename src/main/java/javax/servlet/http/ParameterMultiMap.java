@@ -0,0 +1,401 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact multimap of request parameters, as produced by
+ * {@link FormDataParser}.
+ *
+ * <p>Each value is stored once, in the order it was added, together with
+ * its name; values with the same name are chained, and distinct names
+ * are found through an open-addressing hash table of ints. There is no
+ * entry object or list per name, and the value array of a name is only
+ * built when it is asked for.
+ *
+ * <p>Values added by {@link QueryStringParser} are kept as offsets into
+ * the query string until they are first asked for, when they are
+ * decoded and cached.
+ *
+ * <p>This class is not thread safe.
+ *
+ * @since Servlet 3.1
+ */
+public class ParameterMultiMap {
+
+    // the parameters, in the order they were added; a null value is
+    // still encoded, between valueStart and valueEnd in source
+    private String[] names;
+    private String[] values;
+    private int[] valueStart;
+    private int[] valueEnd;
+    private String source;
+    private Charset sourceCharset;
+    // index of the next parameter with the same name, or -1
+    private int[] next;
+    // for the first parameter of each name, index of the last one
+    private int[] last;
+    private int size;
+
+    // index + 1 of the first parameter of each distinct name, 0 if free
+    private int[] table;
+    private int nameCount;
+
+    /**
+     * Constructs an empty map.
+     */
+    public ParameterMultiMap() {
+        this(8);
+    }
+
+    /**
+     * Constructs an empty map with room for a number of parameters.
+     *
+     * @param capacity the number of parameters the map can hold before
+     * it grows
+     */
+    public ParameterMultiMap(int capacity) {
+        capacity = Math.max(capacity, 4);
+        names = new String[capacity];
+        values = new String[capacity];
+        next = new int[capacity];
+        last = new int[capacity];
+        table = new int[Integer.highestOneBit(capacity * 2 - 1) * 2];
+    }
+
+    /**
+     * Adds a parameter value.
+     *
+     * @param name the name of the parameter
+     * @param value the value
+     */
+    public void add(String name, String value) {
+        if (name == null || value == null) {
+            throw new NullPointerException();
+        }
+        insert(name, value);
+    }
+
+    /*
+     * Adds a parameter whose value is the still encoded region
+     * [start, end) of the query string s, decoded with the given charset
+     * when it is first asked for. A map holds encoded values of a single
+     * query string; those of another one are decoded right away.
+     */
+    void addEncoded(String name, String s, int start, int end,
+            Charset charset) {
+        if (source == null) {
+            source = s;
+            sourceCharset = charset;
+        }
+        if (source != s || sourceCharset != charset) {
+            insert(name, PercentCodec.decode(s, start, end, charset, true));
+            return;
+        }
+        if (valueStart == null) {
+            valueStart = new int[names.length];
+            valueEnd = new int[names.length];
+        }
+        int index = insert(name, null);
+        valueStart[index] = start;
+        valueEnd[index] = end;
+    }
+
+    private int insert(String name, String value) {
+        if (size == names.length) {
+            int n = size * 2;
+            names = Arrays.copyOf(names, n);
+            values = Arrays.copyOf(values, n);
+            next = Arrays.copyOf(next, n);
+            last = Arrays.copyOf(last, n);
+            if (valueStart != null) {
+                valueStart = Arrays.copyOf(valueStart, n);
+                valueEnd = Arrays.copyOf(valueEnd, n);
+            }
+        }
+        int index = size++;
+        names[index] = name;
+        values[index] = value;
+        next[index] = -1;
+
+        int slot = slot(name);
+        int first = table[slot] - 1;
+        if (first >= 0) {
+            next[last[first]] = index;
+            last[first] = index;
+            // share the name of the first parameter
+            names[index] = names[first];
+            return index;
+        }
+        table[slot] = index + 1;
+        last[index] = index;
+        if (++nameCount * 2 > table.length) {
+            rehash();
+        }
+        return index;
+    }
+
+    /*
+     * Returns a value, decoding it on first access.
+     */
+    private String value(int index) {
+        String value = values[index];
+        if (value == null) {
+            value = PercentCodec.decode(source, valueStart[index],
+                                        valueEnd[index], sourceCharset, true);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the first value of a parameter.
+     *
+     * @param name the name of the parameter
+     *
+     * @return the first value, or <code>null</code> if the parameter
+     * does not exist
+     */
+    public String getValue(String name) {
+        int first = table[slot(name)] - 1;
+        return first < 0 ? null : value(first);
+    }
+
+    /**
+     * Gets the values of a parameter, in the order they were added.
+     *
+     * @param name the name of the parameter
+     *
+     * @return a new array of the values, or <code>null</code> if the
+     * parameter does not exist
+     */
+    public String[] getValues(String name) {
+        int first = table[slot(name)] - 1;
+        if (first < 0) {
+            return null;
+        }
+        int n = 0;
+        for (int i = first; i >= 0; i = next[i]) {
+            n++;
+        }
+        String[] result = new String[n];
+        n = 0;
+        for (int i = first; i >= 0; i = next[i]) {
+            result[n++] = value(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether a parameter exists.
+     *
+     * @param name the name of the parameter
+     *
+     * @return <code>true</code> if the parameter has at least one value
+     */
+    public boolean containsName(String name) {
+        return table[slot(name)] != 0;
+    }
+
+    /**
+     * Gets the distinct parameter names, in the order they were first
+     * added.
+     *
+     * @return an <code>Enumeration</code> of the names
+     */
+    public Enumeration<String> getNames() {
+        return new Enumeration<String>() {
+            private int index = nextFirst(0);
+
+            @Override
+            public boolean hasMoreElements() {
+                return index < size;
+            }
+
+            @Override
+            public String nextElement() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                String name = names[index];
+                index = nextFirst(index + 1);
+                return name;
+            }
+        };
+    }
+
+    /**
+     * Gets the number of parameter values.
+     *
+     * @return the number of values of all parameters
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of distinct parameter names.
+     *
+     * @return the number of names
+     */
+    public int getNameCount() {
+        return nameCount;
+    }
+
+    /**
+     * Returns whether this map holds no parameter.
+     *
+     * @return <code>true</code> if the map is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the name of a parameter by position.
+     *
+     * @param index the position of the parameter, in the order
+     * parameters were added
+     *
+     * @return the name of the parameter
+     *
+     * @exception IndexOutOfBoundsException if <code>index</code> is out
+     * of range
+     */
+    public String getName(int index) {
+        checkIndex(index);
+        return names[index];
+    }
+
+    /**
+     * Gets the value of a parameter by position.
+     *
+     * @param index the position of the parameter, in the order
+     * parameters were added
+     *
+     * @return the value of the parameter
+     *
+     * @exception IndexOutOfBoundsException if <code>index</code> is out
+     * of range
+     */
+    public String getValue(int index) {
+        checkIndex(index);
+        return value(index);
+    }
+
+    /**
+     * Copies the parameters into a map of names to value arrays, as
+     * returned by {@link javax.servlet.ServletRequest#getParameterMap}.
+     *
+     * @return a new map, ordered by first occurrence of each name
+     */
+    public Map<String, String[]> toMap() {
+        Map<String, String[]> map =
+            new LinkedHashMap<String, String[]>(nameCount * 2);
+        for (int i = nextFirst(0); i < size; i = nextFirst(i + 1)) {
+            map.put(names[i], getValues(names[i]));
+        }
+        return map;
+    }
+
+    /**
+     * Removes all parameters.
+     */
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(table, 0);
+        size = 0;
+        nameCount = 0;
+        source = null;
+        sourceCharset = null;
+    }
+
+    /*
+     * Returns the index of the first parameter of a name at or after
+     * index, or size.
+     */
+    private int nextFirst(int index) {
+        while (index < size && table[slot(names[index])] - 1 != index) {
+            index++;
+        }
+        return index;
+    }
+
+    /*
+     * Returns the slot of a name in the table: the slot holding the name,
+     * or the free slot where it belongs.
+     */
+    private int slot(String name) {
+        int mask = table.length - 1;
+        int h = name.hashCode();
+        int i = (h ^ (h >>> 16)) & mask;
+        for (;;) {
+            int first = table[i] - 1;
+            if (first < 0 || names[first].equals(name)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void rehash() {
+        int[] old = table;
+        table = new int[old.length * 2];
+        for (int entry : old) {
+            if (entry != 0) {
+                table[slot(names[entry - 1])] = entry;
+            }
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+}
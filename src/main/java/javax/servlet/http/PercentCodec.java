@@ -0,0 +1,379 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import java.nio.charset.Charset;
+
+/**
+ * Decodes and encodes the percent-encoded strings found in URLs and
+ * form data.
+ *
+ * <p>Decoding collects each run of <code>%XX</code> escapes into bytes,
+ * using a lookup table for the hex digits, and decodes the run with a
+ * charset, so that multi-byte characters, such as UTF-8 ones, are decoded
+ * correctly. A string that holds nothing to decode is returned as it is,
+ * and malformed escapes are kept as they are.
+ *
+ * <p>Encoding leaves the characters that are allowed in the target
+ * component as they are, and escapes the bytes of the others in the
+ * given charset.
+ *
+ * @since Servlet 3.1
+ */
+public final class PercentCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    // value of each ASCII hex digit, -1 for other characters
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    // characters left as they are by the encoders, as HttpCharClasses
+    // sets: those java.net.URLEncoder leaves as they are, and the path
+    // characters other than '%', with or without '/'
+    private static final long FORM_SAFE_LO = HttpCharClasses.lo(
+        "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ.-*_");
+    private static final long FORM_SAFE_HI = HttpCharClasses.hi(
+        "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ.-*_");
+    private static final long SEGMENT_SAFE_LO =
+        HttpCharClasses.PATH_LO & ~HttpCharClasses.lo("%/");
+    private static final long SEGMENT_SAFE_HI = HttpCharClasses.PATH_HI;
+    private static final long PATH_SAFE_LO =
+        HttpCharClasses.PATH_LO & ~HttpCharClasses.lo("%");
+    private static final long PATH_SAFE_HI = HttpCharClasses.PATH_HI;
+
+    static {
+        for (int i = 0; i < 128; i++) {
+            HEX_VALUES[i] = (byte) Character.digit((char) i, 16);
+        }
+    }
+
+    private PercentCodec() {
+    }
+
+    /**
+     * Returns the value of a hex digit.
+     *
+     * @param c a character
+     *
+     * @return the value of the digit, or -1 if <code>c</code> is not a
+     * hex digit
+     */
+    static int hexValue(int c) {
+        return c < 128 && c >= 0 ? HEX_VALUES[c] : -1;
+    }
+
+    /**
+     * Returns whether a region of a string holds anything to decode.
+     *
+     * @param s the string
+     * @param start the start of the region
+     * @param end the end of the region, exclusive
+     * @param plusAsSpace whether <code>+</code> stands for a space
+     *
+     * @return <code>true</code> if the region contains a <code>%</code>,
+     * or a <code>+</code> when it stands for a space
+     */
+    public static boolean needsDecoding(CharSequence s, int start, int end,
+            boolean plusAsSpace) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '%' || (c == '+' && plusAsSpace)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes a query string or form data component, in which
+     * <code>+</code> stands for a space.
+     *
+     * @param s the string to decode
+     * @param charset the charset of the escaped bytes
+     *
+     * @return the decoded string, which is <code>s</code> itself if it
+     * holds nothing to decode
+     */
+    public static String decode(String s, Charset charset) {
+        return decode(s, 0, s.length(), charset, true);
+    }
+
+    /**
+     * Decodes a URL path, in which <code>+</code> is a plain character.
+     *
+     * @param s the path to decode
+     * @param charset the charset of the escaped bytes
+     *
+     * @return the decoded path, which is <code>s</code> itself if it
+     * holds nothing to decode
+     */
+    public static String decodePath(String s, Charset charset) {
+        return decode(s, 0, s.length(), charset, false);
+    }
+
+    /**
+     * Decodes a region of a string.
+     *
+     * @param s the string
+     * @param start the start of the region
+     * @param end the end of the region, exclusive
+     * @param charset the charset of the escaped bytes
+     * @param plusAsSpace whether <code>+</code> stands for a space
+     *
+     * @return the decoded region
+     */
+    public static String decode(String s, int start, int end,
+            Charset charset, boolean plusAsSpace) {
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '%' || (c == '+' && plusAsSpace)) {
+                break;
+            }
+            i++;
+        }
+        if (i == end) {
+            return (start == 0 && end == s.length()) ? s
+                                                     : s.substring(start, end);
+        }
+
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(s, start, i);
+        byte[] bytes = null;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '%' && isEscape(s, i, end)) {
+                if (bytes == null) {
+                    bytes = new byte[(end - i) / 3];
+                }
+                // decode the whole run of escaped bytes at once
+                int n = 0;
+                do {
+                    bytes[n++] = (byte) ((HEX_VALUES[s.charAt(i + 1)] << 4)
+                                         | HEX_VALUES[s.charAt(i + 2)]);
+                    i += 3;
+                } while (i < end && s.charAt(i) == '%' && isEscape(s, i, end));
+                sb.append(new String(bytes, 0, n, charset));
+            } else {
+                sb.append(c == '+' && plusAsSpace ? ' ' : c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isEscape(String s, int i, int end) {
+        return i + 2 < end && hexValue(s.charAt(i + 1)) >= 0
+            && hexValue(s.charAt(i + 2)) >= 0;
+    }
+
+    /*
+     * Decodes the region [start, end) of s as HttpUtils.parseQueryString
+     * and HttpUtils.parsePostData always have: '+' is a space, an escape
+     * is taken as a single character, an escape cut short by the end of
+     * the region is kept as it is, and any other malformed escape is an
+     * IllegalArgumentException.
+     */
+    static String decodeStrict(String s, int start, int end) {
+        if (!needsDecoding(s, start, end, true)) {
+            return s.substring(start, end);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '+':
+                    sb.append(' ');
+                    break;
+                case '%':
+                    if (i + 3 > end) {
+                        sb.append(s, i, end);
+                        i = end;
+                        break;
+                    }
+                    int hi = hexValue(s.charAt(i + 1));
+                    int lo = hexValue(s.charAt(i + 2));
+                    if (hi >= 0 && lo >= 0) {
+                        sb.append((char) ((hi << 4) | lo));
+                    } else {
+                        // this has always accepted what Integer.parseInt
+                        // does, such as a sign
+                        try {
+                            sb.append((char) Integer.parseInt(
+                                s.substring(i + 1, i + 3), 16));
+                        } catch (NumberFormatException e) {
+                            // XXX
+                            // need to be more specific about illegal arg
+                            throw new IllegalArgumentException();
+                        }
+                    }
+                    i += 2;
+                    break;
+                default:
+                    sb.append(c);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Encodes a query string or form data component, as
+     * <code>java.net.URLEncoder</code> does: a space becomes
+     * <code>+</code>, and all characters but letters, digits and
+     * <code>.-*_</code> are escaped.
+     *
+     * @param s the string to encode
+     * @param charset the charset of the escaped bytes
+     *
+     * @return the encoded string, which is <code>s</code> itself if
+     * nothing needed encoding
+     */
+    public static String encode(String s, Charset charset) {
+        return encode(s, charset, FORM_SAFE_LO, FORM_SAFE_HI, true);
+    }
+
+    /**
+     * Encodes a segment of a URL path, escaping <code>/</code> and the
+     * other characters that are not allowed in a segment by RFC 3986.
+     *
+     * @param s the segment to encode
+     * @param charset the charset of the escaped bytes
+     *
+     * @return the encoded segment, which is <code>s</code> itself if
+     * nothing needed encoding
+     */
+    public static String encodePathSegment(String s, Charset charset) {
+        return encode(s, charset, SEGMENT_SAFE_LO, SEGMENT_SAFE_HI, false);
+    }
+
+    /**
+     * Encodes a URL path, leaving <code>/</code> and the other
+     * characters allowed in a path by RFC 3986 as they are.
+     *
+     * @param s the path to encode
+     * @param charset the charset of the escaped bytes
+     *
+     * @return the encoded path, which is <code>s</code> itself if nothing
+     * needed encoding
+     */
+    public static String encodePath(String s, Charset charset) {
+        return encode(s, charset, PATH_SAFE_LO, PATH_SAFE_HI, false);
+    }
+
+    private static String encode(String s, Charset charset, long safeLo,
+            long safeHi, boolean spaceAsPlus) {
+        int len = s.length();
+        int i = 0;
+        while (i < len) {
+            char c = s.charAt(i);
+            if (!HttpCharClasses.matches(c, safeLo, safeHi)) {
+                break;
+            }
+            i++;
+        }
+        if (i == len) {
+            return s;
+        }
+
+        StringBuilder sb = new StringBuilder(len + 16);
+        sb.append(s, 0, i);
+        boolean utf8 = UTF_8.equals(charset);
+        while (i < len) {
+            char c = s.charAt(i);
+            if (HttpCharClasses.matches(c, safeLo, safeHi)) {
+                sb.append(c);
+                i++;
+            } else if (c == ' ' && spaceAsPlus) {
+                sb.append('+');
+                i++;
+            } else if (c < 128) {
+                appendEscape(sb, c);
+                i++;
+            } else if (utf8) {
+                int cp = s.codePointAt(i);
+                int n = Character.charCount(cp);
+                if (Character.isSurrogate(c) && n == 1) {
+                    // an unpaired surrogate, which UTF-8 cannot encode,
+                    // is replaced as String.getBytes does
+                    cp = '?';
+                }
+                appendUtf8(sb, cp);
+                i += n;
+            } else {
+                // encode the whole run of non-ASCII characters at once
+                int j = i + 1;
+                while (j < len && s.charAt(j) >= 128) {
+                    j++;
+                }
+                for (byte b : s.substring(i, j).getBytes(charset)) {
+                    appendEscape(sb, b & 0xff);
+                }
+                i = j;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendUtf8(StringBuilder sb, int cp) {
+        if (cp < 0x80) {
+            appendEscape(sb, cp);
+        } else if (cp < 0x800) {
+            appendEscape(sb, 0xc0 | (cp >> 6));
+            appendEscape(sb, 0x80 | (cp & 0x3f));
+        } else if (cp < 0x10000) {
+            appendEscape(sb, 0xe0 | (cp >> 12));
+            appendEscape(sb, 0x80 | ((cp >> 6) & 0x3f));
+            appendEscape(sb, 0x80 | (cp & 0x3f));
+        } else {
+            appendEscape(sb, 0xf0 | (cp >> 18));
+            appendEscape(sb, 0x80 | ((cp >> 12) & 0x3f));
+            appendEscape(sb, 0x80 | ((cp >> 6) & 0x3f));
+            appendEscape(sb, 0x80 | (cp & 0x3f));
+        }
+    }
+
+    private static void appendEscape(StringBuilder sb, int b) {
+        sb.append('%').append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xf]);
+    }
+}
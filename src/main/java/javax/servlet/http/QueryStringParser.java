@@ -0,0 +1,205 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.ResourceBundle;
+
+/**
+ * Parses a query string into a {@link ParameterMultiMap}.
+ *
+ * <p>The query string is scanned once. Names are decoded as they are
+ * found, but a value is only recorded as a region of the query string,
+ * and is decoded when it is first asked for; a name or value without
+ * escapes is taken as a substring without decoding.
+ *
+ * <p>Escaped bytes are decoded with the given charset. Malformed escapes
+ * are kept as they are, parameters without a name are ignored, and a
+ * parameter without <code>=</code> has an empty value. The number of
+ * parameters is limited; exceeding the limit fails the parse with an
+ * <code>IllegalStateException</code>.
+ *
+ * <p>A parser holds no state between calls to <code>parse</code>, and
+ * can be shared.
+ *
+ * @see HttpServletRequest#getQueryString
+ *
+ * @since Servlet 3.1
+ */
+public class QueryStringParser {
+
+    private static final String LSTRING_FILE =
+        "javax.servlet.http.LocalStrings";
+    private static ResourceBundle lStrings =
+        ResourceBundle.getBundle(LSTRING_FILE);
+
+    private final Charset charset;
+    private final int maxParameterCount;
+    // the semantics of HttpUtils.parseQueryString: values are decoded
+    // right away, and malformed escapes and parameters without '=' are
+    // rejected
+    private final boolean strict;
+
+    /**
+     * Constructs a parser with the default limit of
+     * {@link FormDataParser#DEFAULT_MAX_PARAMETER_COUNT} parameters.
+     *
+     * @param charset the charset of the escaped bytes
+     */
+    public QueryStringParser(Charset charset) {
+        this(charset, FormDataParser.DEFAULT_MAX_PARAMETER_COUNT, false);
+    }
+
+    /**
+     * Constructs a parser.
+     *
+     * @param charset the charset of the escaped bytes
+     * @param maxParameterCount the maximum number of parameters
+     *
+     * @throws IllegalArgumentException if the limit is not positive
+     */
+    public QueryStringParser(Charset charset, int maxParameterCount) {
+        this(charset, maxParameterCount, false);
+    }
+
+    QueryStringParser(Charset charset, int maxParameterCount,
+            boolean strict) {
+        if (charset == null) {
+            throw new NullPointerException();
+        }
+        if (maxParameterCount <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.charset = charset;
+        this.maxParameterCount = maxParameterCount;
+        this.strict = strict;
+    }
+
+    /**
+     * Parses a query string.
+     *
+     * @param query the query string, without the leading <code>?</code>
+     *
+     * @return the parameters
+     *
+     * @exception IllegalStateException if there are more parameters than
+     * allowed
+     */
+    public ParameterMultiMap parse(String query) {
+        ParameterMultiMap params = new ParameterMultiMap();
+        parse(query, params);
+        return params;
+    }
+
+    /**
+     * Parses a query string, adding the parameters to a map.
+     *
+     * @param query the query string, without the leading <code>?</code>
+     * @param params the map to add the parameters to
+     *
+     * @exception IllegalStateException if there are more parameters than
+     * allowed
+     */
+    public void parse(String query, ParameterMultiMap params) {
+        int len = query.length();
+        int count = 0;
+        int start = 0;
+        while (start < len) {
+            // find the end of the parameter and its first '=', noting
+            // whether the name or the value needs decoding
+            int eq = -1;
+            boolean nameEncoded = false;
+            boolean valueEncoded = false;
+            int end = start;
+            for (; end < len; end++) {
+                char c = query.charAt(end);
+                if (c == '&') {
+                    break;
+                }
+                if (c == '=') {
+                    if (eq < 0) {
+                        eq = end;
+                        continue;
+                    }
+                } else if (c != '%' && c != '+') {
+                    continue;
+                }
+                if (eq < 0) {
+                    nameEncoded = true;
+                } else {
+                    valueEncoded = true;
+                }
+            }
+            if (end > start) {
+                if (eq < 0 && strict) {
+                    throw new IllegalArgumentException();
+                }
+                int nameEnd = (eq < 0 ? end : eq);
+                if (nameEnd > start || strict) {
+                    if (++count > maxParameterCount) {
+                        throw new IllegalStateException(MessageFormat.format(
+                            lStrings.getString("err.query.too_many_parameters"),
+                            String.valueOf(maxParameterCount)));
+                    }
+                    String name = (nameEncoded
+                        ? decode(query, start, nameEnd)
+                        : query.substring(start, nameEnd));
+                    if (eq < 0) {
+                        params.add(name, "");
+                    } else if (!valueEncoded) {
+                        params.add(name, query.substring(eq + 1, end));
+                    } else if (strict) {
+                        params.add(name, decode(query, eq + 1, end));
+                    } else {
+                        params.addEncoded(name, query, eq + 1, end, charset);
+                    }
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    private String decode(String s, int start, int end) {
+        return strict ? PercentCodec.decodeStrict(s, start, end)
+                      : PercentCodec.decode(s, start, end, charset, true);
+    }
+}
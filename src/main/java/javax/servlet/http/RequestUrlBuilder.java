@@ -0,0 +1,214 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+/**
+ * Builds absolute URLs for a request into a caller-supplied
+ * <code>StringBuilder</code>, rather than into a new synchronized
+ * <code>StringBuffer</code> as {@link HttpServletRequest#getRequestURL}
+ * does.
+ *
+ * <p>A builder is created for a request, typically once per request by
+ * code that generates many links. The origin of the request, its scheme,
+ * server name and port, is built on first use and kept by the builder,
+ * so that each URL only appends the cached origin and a path. As with
+ * {@link HttpUtils#getRequestURL}, the port is included unless it is the
+ * default port of <code>http</code> or <code>https</code>.
+ *
+ * <p>The origin is read from the request given to the builder; a builder
+ * must be created for the request object whose scheme, server name and
+ * port are to be used, such as a wrapper that overrides them. A builder
+ * is not thread safe.
+ *
+ * @since Servlet 3.1
+ */
+public final class RequestUrlBuilder {
+
+    private final HttpServletRequest request;
+    private String origin;
+
+    /**
+     * Constructs a builder for a request.
+     *
+     * @param request the request
+     *
+     * @throws IllegalArgumentException if the request is null
+     */
+    public RequestUrlBuilder(HttpServletRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException();
+        }
+        this.request = request;
+    }
+
+    /**
+     * Gets the origin of the request, such as
+     * <code>http://example.com:8080</code>.
+     *
+     * @return the scheme, server name and, unless it is the default one
+     * for the scheme, port of the request
+     */
+    public String getOrigin() {
+        String o = origin;
+        if (o == null) {
+            String scheme = request.getScheme();
+            String host = request.getServerName();
+            int port = request.getServerPort();
+            StringBuilder sb = new StringBuilder(
+                scheme.length() + host.length() + 9);
+            sb.append(scheme).append("://").append(host);
+            if (("http".equals(scheme) && port != 80)
+                    || ("https".equals(scheme) && port != 443)) {
+                sb.append(':').append(port);
+            }
+            o = sb.toString();
+            origin = o;
+        }
+        return o;
+    }
+
+    /**
+     * Appends the URL the client used to make the request, without its
+     * query string.
+     *
+     * @param sb the builder to append to
+     *
+     * @return <code>sb</code>
+     */
+    public StringBuilder appendRequestURL(StringBuilder sb) {
+        return sb.append(getOrigin()).append(request.getRequestURI());
+    }
+
+    /**
+     * Appends an absolute URL on the origin of the request.
+     *
+     * @param sb the builder to append to
+     * @param path the path of the URL, starting with <code>/</code>
+     * @param query the query string, without the leading <code>?</code>,
+     * or <code>null</code>
+     *
+     * @return <code>sb</code>
+     */
+    public StringBuilder appendURL(StringBuilder sb, CharSequence path,
+            CharSequence query) {
+        sb.append(getOrigin()).append(path);
+        if (query != null) {
+            sb.append('?').append(query);
+        }
+        return sb;
+    }
+
+    /**
+     * Appends the query string of the request, preceded by
+     * <code>?</code>, if it has one.
+     *
+     * @param sb the builder to append to
+     *
+     * @return <code>sb</code>
+     */
+    public StringBuilder appendQueryString(StringBuilder sb) {
+        String query = request.getQueryString();
+        if (query != null) {
+            sb.append('?').append(query);
+        }
+        return sb;
+    }
+
+    /**
+     * Returns the URL the client used to make the request, without its
+     * query string, as a character sequence over the cached origin and
+     * the request URI. Nothing is copied until the sequence is converted
+     * to a string or appended.
+     *
+     * @return the URL of the request
+     */
+    public CharSequence getRequestURL() {
+        return new JoinedSequence(getOrigin(), request.getRequestURI());
+    }
+}
+
+
+/*
+ * The concatenation of two strings, as a character sequence.
+ */
+// file private
+class JoinedSequence implements CharSequence {
+
+    private final String first;
+    private final String second;
+
+    JoinedSequence(String first, String second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public int length() {
+        return first.length() + second.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        int n = first.length();
+        return index < n ? first.charAt(index) : second.charAt(index - n);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        int n = first.length();
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (end <= n) {
+            return first.substring(start, end);
+        }
+        if (start >= n) {
+            return second.substring(start - n, end - n);
+        }
+        return new JoinedSequence(first.substring(start),
+                                  second.substring(0, end - n));
+    }
+
+    @Override
+    public String toString() {
+        return first.concat(second);
+    }
+}
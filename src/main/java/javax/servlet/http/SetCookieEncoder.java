@@ -0,0 +1,257 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import java.text.MessageFormat;
+import java.util.ResourceBundle;
+
+/**
+ * Serializes cookies into the value of a <code>Set-Cookie</code> response
+ * header, as defined by RFC 6265.
+ *
+ * <p>The header is appended to a caller-supplied
+ * <code>StringBuilder</code>, which can be reused from one cookie to the
+ * next. A cookie is written as its name and value followed by the
+ * <code>Expires</code> and <code>Max-Age</code> attributes when it has a
+ * non-negative maximum age, and by the <code>Domain</code>,
+ * <code>Path</code>, <code>Secure</code> and <code>HttpOnly</code>
+ * attributes when they are set. The comment and version of a cookie have
+ * no equivalent in RFC 6265 and are not written.
+ *
+ * <p>Cookies that are written to many responses, such as the session
+ * cookie, can be serialized once into a {@link CookieTemplate}.
+ *
+ * @see HttpServletResponse#addCookie
+ *
+ * @since Servlet 3.1
+ */
+public final class SetCookieEncoder {
+
+    private static final String LSTRING_FILE =
+        "javax.servlet.http.LocalStrings";
+    private static ResourceBundle lStrings =
+        ResourceBundle.getBundle(LSTRING_FILE);
+
+    /*
+     * The Expires date written for a maximum age of zero, far enough in
+     * the past to survive any clock skew.
+     */
+    static final String EXPIRED_DATE = "Thu, 01 Jan 1970 00:00:00 GMT";
+
+    private static final String[] DAYS = {
+        "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"
+    };
+
+    private static final String[] MONTHS = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun",
+        "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    private SetCookieEncoder() {
+    }
+
+    /**
+     * Serializes a cookie.
+     *
+     * @param cookie the cookie
+     *
+     * @return the value of the <code>Set-Cookie</code> header
+     *
+     * @throws IllegalArgumentException if the value, domain or path of
+     * the cookie contains a character that is not allowed by RFC 6265
+     */
+    public static String encode(Cookie cookie) {
+        return appendTo(new StringBuilder(64), cookie).toString();
+    }
+
+    /**
+     * Serializes a cookie, appending it to a builder.
+     *
+     * @param sb the builder to append to
+     * @param cookie the cookie
+     *
+     * @return <code>sb</code>
+     *
+     * @throws IllegalArgumentException if the value, domain or path of
+     * the cookie contains a character that is not allowed by RFC 6265
+     */
+    public static StringBuilder appendTo(StringBuilder sb, Cookie cookie) {
+        sb.append(cookie.getName()).append('=');
+        appendValue(sb, cookie.getValue());
+        int maxAge = cookie.getMaxAge();
+        if (maxAge >= 0) {
+            appendExpires(sb, maxAge, System.currentTimeMillis());
+        }
+        appendAttributes(sb, maxAge, cookie.getDomain(), cookie.getPath(),
+                         cookie.getSecure(), cookie.isHttpOnly());
+        return sb;
+    }
+
+    /*
+     * Appends a cookie value, checking that it is made of cookie-octets,
+     * optionally between double quotes. A null value is written as an
+     * empty one.
+     */
+    static void appendValue(StringBuilder sb, String value) {
+        if (value == null) {
+            return;
+        }
+        if (!HttpCharClasses.isCookieValue(value)) {
+            throw new IllegalArgumentException(MessageFormat.format(
+                lStrings.getString("err.cookie_value_invalid"), value));
+        }
+        sb.append(value);
+    }
+
+    /*
+     * Appends the Expires attribute of a cookie with a non-negative
+     * maximum age.
+     */
+    static void appendExpires(StringBuilder sb, int maxAge, long now) {
+        sb.append("; Expires=");
+        if (maxAge == 0) {
+            sb.append(EXPIRED_DATE);
+        } else {
+            appendDate(sb, now + maxAge * 1000L);
+        }
+    }
+
+    /*
+     * Appends the attributes of a cookie that do not depend on the time
+     * or the value.
+     */
+    static void appendAttributes(StringBuilder sb, int maxAge,
+            String domain, String path, boolean secure, boolean httpOnly) {
+        if (maxAge >= 0) {
+            sb.append("; Max-Age=").append(maxAge);
+        }
+        if (domain != null) {
+            checkAttribute("Domain", domain);
+            sb.append("; Domain=").append(domain);
+        }
+        if (path != null) {
+            checkAttribute("Path", path);
+            sb.append("; Path=").append(path);
+        }
+        if (secure) {
+            sb.append("; Secure");
+        }
+        if (httpOnly) {
+            sb.append("; HttpOnly");
+        }
+    }
+
+    /*
+     * Checks that an attribute value has no control character and no
+     * semicolon.
+     */
+    private static void checkAttribute(String attribute, String value) {
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c >= 0x7f || c == ';') {
+                throw new IllegalArgumentException(MessageFormat.format(
+                    lStrings.getString("err.cookie_attribute_invalid"),
+                    attribute, value));
+            }
+        }
+    }
+
+    /**
+     * Appends a date in the format of RFC 1123, such as
+     * <code>Sun, 06 Nov 1994 08:49:37 GMT</code>, as used by the
+     * <code>Expires</code> attribute.
+     *
+     * @param sb the builder to append to
+     * @param millis the date, in milliseconds since the epoch
+     *
+     * @return <code>sb</code>
+     */
+    public static StringBuilder appendDate(StringBuilder sb, long millis) {
+        long seconds = millis / 1000;
+        if (millis % 1000 < 0) {
+            seconds--;
+        }
+        long days = seconds / 86400;
+        int secondOfDay = (int) (seconds % 86400);
+        if (secondOfDay < 0) {
+            secondOfDay += 86400;
+            days--;
+        }
+
+        // the civil date of a day count, with years starting in March
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+                         - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4
+                                    - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        // 1 January 1970 was a Thursday
+        int dayOfWeek = (int) ((days + 4) % 7);
+        if (dayOfWeek < 0) {
+            dayOfWeek += 7;
+        }
+
+        sb.append(DAYS[dayOfWeek]).append(", ");
+        appendTwoDigits(sb, day);
+        sb.append(' ').append(MONTHS[month - 1]).append(' ');
+        if (year >= 0 && year < 1000) {
+            sb.append(year < 10 ? "000" : year < 100 ? "00" : "0");
+        }
+        sb.append(year).append(' ');
+        appendTwoDigits(sb, secondOfDay / 3600);
+        sb.append(':');
+        appendTwoDigits(sb, secondOfDay / 60 % 60);
+        sb.append(':');
+        appendTwoDigits(sb, secondOfDay % 60);
+        return sb.append(" GMT");
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int n) {
+        sb.append((char) ('0' + n / 10)).append((char) ('0' + n % 10));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.servlet.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import javax.servlet.MultipartConfigElement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultipartParserTest {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final String CONTENT_TYPE =
+        "multipart/form-data; boundary=XyZ";
+
+    private Path dir;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("multipart");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) {
+                Files.delete(f);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void deleteKeepsWrittenFile() throws Exception {
+        byte[] data = content(5000);
+        Collection<Part> parts = newParser(null).parse(
+            new ByteArrayInputStream(body(data, true)));
+        Part part = parts.iterator().next();
+
+        part.write("saved.bin");
+        Path saved = dir.resolve("saved.bin");
+        assertArrayEquals(data, Files.readAllBytes(saved));
+
+        part.delete();
+        assertTrue(Files.exists(saved));
+        assertArrayEquals(data, Files.readAllBytes(saved));
+        assertEquals(Arrays.asList("saved.bin"), listFiles());
+    }
+
+    @Test
+    public void writeTwiceKeepsFirstFile() throws Exception {
+        byte[] data = content(5000);
+        Collection<Part> parts = newParser(null).parse(
+            new ByteArrayInputStream(body(data, true)));
+        Part part = parts.iterator().next();
+
+        part.write("first.bin");
+        part.write("second.bin");
+        assertArrayEquals(data, Files.readAllBytes(dir.resolve("first.bin")));
+        assertArrayEquals(data, Files.readAllBytes(dir.resolve("second.bin")));
+    }
+
+    @Test
+    public void parserFailureKeepsWrittenFile() throws Exception {
+        byte[] data = content(5000);
+        MultipartParser parser = newParser(new MultipartListener() {
+            @Override
+            public boolean onPartStart(Part part) {
+                return true;
+            }
+
+            @Override
+            public void onPartData(Part part, byte[] b, int off, int len) {
+            }
+
+            @Override
+            public void onPartEnd(Part part) throws IOException {
+                part.write("saved.bin");
+            }
+        });
+        // the first part is complete, the second one is truncated
+        byte[] body = body(data, false);
+        parser.feed(body, 0, body.length);
+        try {
+            parser.finish();
+            fail("truncated body accepted");
+        } catch (IOException e) {
+            // expected
+        }
+
+        Path saved = dir.resolve("saved.bin");
+        assertArrayEquals(data, Files.readAllBytes(saved));
+        assertEquals(Arrays.asList("saved.bin"), listFiles());
+    }
+
+    private MultipartParser newParser(MultipartListener listener)
+            throws Exception {
+        // every part goes to a temporary file
+        MultipartConfigElement config =
+            new MultipartConfigElement(dir.toString(), -1, -1, 0);
+        return new MultipartParser(CONTENT_TYPE, config, (File) null,
+                                   listener);
+    }
+
+    private static byte[] content(int n) {
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++) {
+            b[i] = (byte) ('a' + i % 26);
+        }
+        return b;
+    }
+
+    /*
+     * A body holding a file part, followed by the closing delimiter or
+     * by the start of a second part.
+     */
+    private static byte[] body(byte[] data, boolean complete) {
+        String head = "--XyZ\r\n"
+            + "Content-Disposition: form-data; name=\"f\"; filename=\"a\"\r\n"
+            + "\r\n";
+        String tail = complete
+            ? "\r\n--XyZ--\r\n"
+            : "\r\n--XyZ\r\nContent-Disposition: form-data; name=\"g\"\r\n"
+              + "\r\nabc";
+        byte[] h = head.getBytes(ISO_8859_1);
+        byte[] t = tail.getBytes(ISO_8859_1);
+        byte[] body = new byte[h.length + data.length + t.length];
+        System.arraycopy(h, 0, body, 0, h.length);
+        System.arraycopy(data, 0, body, h.length, data.length);
+        System.arraycopy(t, 0, body, h.length + data.length, t.length);
+        return body;
+    }
+
+    private List<String> listFiles() throws IOException {
+        List<String> names = new ArrayList<String>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) {
+                names.add(f.getFileName().toString());
+            }
+        }
+        return names;
+    }
+}